@@ -0,0 +1,99 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.workrecords.file;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opentdc.service.TagRefModel;
+
+/**
+ * addTags() with an increasing number of tags per call, each time on a fresh workrecord.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgs = { "-Xmx2g" })
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class AddTagsBenchmark {
+	@Param({ "1", "8", "64" })
+	public int tagCount;
+
+	private BenchmarkFileServiceProvider provider;
+	private String tagIdList;
+	private String id;
+	private int next = 0;
+
+	@Setup(Level.Trial)
+	public void setUp()
+			throws IOException {
+		provider = BenchmarkFileServiceProvider.create(new HashMap<String, String>(), false);
+		provider.seed(1000);
+		StringBuilder _tagIdList = new StringBuilder();
+		for (int i = 0; i < tagCount; i++) {
+			if (i > 0) {
+				_tagIdList.append(',');
+			}
+			_tagIdList.append("tag").append(i);
+		}
+		tagIdList = _tagIdList.toString();
+	}
+
+	@Setup(Level.Invocation)
+	public void newWorkRecord() {
+		id = provider.createWorkRecord(BenchmarkFileServiceProvider.REQUEST, 
+				BenchmarkFileServiceProvider.newWorkRecord(next++)).getId();
+	}
+
+	@TearDown(Level.Invocation)
+	public void deleteWorkRecord() {
+		provider.deleteWorkRecord(id);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		BenchmarkFileServiceProvider.reset();
+	}
+
+	@Benchmark
+	public List<TagRefModel> addTags() {
+		return provider.addTags(BenchmarkFileServiceProvider.REQUEST, id, tagIdList);
+	}
+}
@@ -0,0 +1,115 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.workrecords.file;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opentdc.workrecords.WorkRecordModel;
+
+/**
+ * Synchronous operations compared to the same operations through the {@link AsyncFileServiceProvider}
+ * (submitted and joined), with more request threads than I/O threads and the journal on disk.
+ * asyncExecutor "virtual" falls back to platform threads before Java 21.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgs = { "-Xmx2g" })
+@Threads(32)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class AsyncBenchmark {
+	@Param({ "platform", "virtual" })
+	public String asyncExecutor;
+
+	@Param({ "10000" })
+	public int recordCount;
+
+	private BenchmarkFileServiceProvider provider;
+	private AsyncFileServiceProvider asyncProvider;
+	private String[] ids;
+
+	@Setup(Level.Trial)
+	public void setUp()
+			throws IOException {
+		Map<String, String> _params = new HashMap<String, String>();
+		_params.put("persistenceMode", FileServiceProvider.PERSISTENCE_MODE_JOURNAL);
+		_params.put("asyncExecutor", asyncExecutor);
+		_params.put("asyncThreads", "8");
+		provider = BenchmarkFileServiceProvider.create(_params, true);
+		asyncProvider = new AsyncFileServiceProvider(provider, provider.getContext());
+		ids = provider.seed(recordCount);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		BenchmarkFileServiceProvider.reset();
+	}
+
+	@Benchmark
+	public WorkRecordModel syncRead() {
+		return provider.readWorkRecord(randomId());
+	}
+
+	@Benchmark
+	public WorkRecordModel asyncRead() {
+		return asyncProvider.readWorkRecord(randomId()).join();
+	}
+
+	@Benchmark
+	public WorkRecordModel syncCreate() {
+		return provider.createWorkRecord(BenchmarkFileServiceProvider.REQUEST, newWorkRecord());
+	}
+
+	@Benchmark
+	public WorkRecordModel asyncCreate() {
+		return asyncProvider.createWorkRecord(BenchmarkFileServiceProvider.REQUEST, newWorkRecord()).join();
+	}
+
+	private String randomId() {
+		return ids[ThreadLocalRandom.current().nextInt(ids.length)];
+	}
+
+	private static WorkRecordModel newWorkRecord() {
+		return BenchmarkFileServiceProvider.newWorkRecord(ThreadLocalRandom.current().nextInt(1000000));
+	}
+}
@@ -0,0 +1,216 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.workrecords.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.security.Principal;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+
+import org.opentdc.resources.ResourceModel;
+import org.opentdc.workrecords.WorkRecordModel;
+import org.opentdc.wtt.CompanyModel;
+import org.opentdc.wtt.ProjectModel;
+
+/**
+ * FileServiceProvider for the benchmarks: runs against a stubbed ServletContext (init parameters from a map,
+ * data files in a temporary directory) and stubbed wtt/resources lookups.
+ * Each instance starts with an empty store.
+ */
+class BenchmarkFileServiceProvider extends FileServiceProvider {
+	static final int COMPANIES = 10;
+	static final int PROJECTS = 100;
+	static final int RESOURCES = 1000;
+
+	static final HttpServletRequest REQUEST = stub(HttpServletRequest.class, new HashMap<String, String>(), null);
+
+	private final ServletContext context;
+
+	/**
+	 * Create a provider with an empty store.
+	 * @param initParameters the init parameters of the servlet context
+	 * @param persistent whether changes are written to the data directory
+	 * @return the provider
+	 * @throws IOException
+	 */
+	static BenchmarkFileServiceProvider create(
+			Map<String, String> initParameters,
+			boolean persistent)
+			throws IOException {
+		reset();
+		File _dir = File.createTempFile("workrecords-bench", "");
+		if (!_dir.delete() || !_dir.mkdirs()) {
+			throw new IOException("can not create <" + _dir + ">");
+		}
+		_dir.deleteOnExit();
+		Map<String, String> _params = new HashMap<String, String>(initParameters);
+		if (!_params.containsKey("referenceCacheSize")) {
+			_params.put("referenceCacheSize", "0");
+		}
+		if (!_params.containsKey("isResourceDerived")) {
+			_params.put("isResourceDerived", "true");
+		}
+		BenchmarkFileServiceProvider _provider = new BenchmarkFileServiceProvider(
+			stub(ServletContext.class, _params, _dir), "bench");
+		referenceResolver = new StubReferenceResolver();
+		isPersistent = persistent;
+		return _provider;
+	}
+
+	private BenchmarkFileServiceProvider(
+			ServletContext context,
+			String prefix)
+			throws IOException {
+		super(context, prefix);
+		this.context = context;
+	}
+
+	/**
+	 * @return the stubbed servlet context of this provider (e.g. for an {@link AsyncFileServiceProvider})
+	 */
+	ServletContext getContext() {
+		return context;
+	}
+
+	/**
+	 * Drop the static state of FileServiceProvider, so that the next instance starts from scratch.
+	 */
+	static void reset() {
+		shutdown();
+		referenceResolver = new ReferenceResolver();
+	}
+
+	/**
+	 * Create the i-th workrecord: references are spread over COMPANIES, PROJECTS and RESOURCES, 
+	 * startAt over the last 1000 days.
+	 * @param i the number of the workrecord
+	 * @return the new (not yet created) workrecord
+	 */
+	static WorkRecordModel newWorkRecord(
+			int i) {
+		WorkRecordModel _model = new WorkRecordModel();
+		_model.setCompanyId("company" + (i % COMPANIES));
+		_model.setProjectId("project" + (i % PROJECTS));
+		_model.setResourceId("resource" + (i % RESOURCES));
+		_model.setStartAt(new Date(System.currentTimeMillis() - (i % 1000) * 86400000L - i));
+		_model.setDurationHours(i % 8);
+		_model.setDurationMinutes(i % 60);
+		_model.setBillable(i % 2 == 0);
+		_model.setComment("benchmark workrecord " + i);
+		return _model;
+	}
+
+	/**
+	 * Create recordCount workrecords.
+	 * @param recordCount the number of workrecords
+	 * @return the ids of the workrecords
+	 */
+	String[] seed(
+			int recordCount) {
+		String[] _ids = new String[recordCount];
+		for (int i = 0; i < recordCount; i++) {
+			_ids[i] = createWorkRecord(REQUEST, newWorkRecord(i)).getId();
+		}
+		return _ids;
+	}
+
+	/**
+	 * Resolves every reference to a fixed company, project or resource.
+	 */
+	static class StubReferenceResolver extends ReferenceResolver {
+		@Override
+		CompanyModel getCompany(String id) {
+			CompanyModel _company = new CompanyModel();
+			_company.setTitle("Company " + id);
+			return _company;
+		}
+
+		@Override
+		ProjectModel getProject(String id) {
+			ProjectModel _project = new ProjectModel();
+			_project.setTitle("Project " + id);
+			return _project;
+		}
+
+		@Override
+		ResourceModel getResourceModel(String id) {
+			ResourceModel _resource = new ResourceModel();
+			_resource.setName("Resource " + id);
+			return _resource;
+		}
+	}
+
+	/**
+	 * Stub a servlet interface: getInitParameter() answers from a map, getRealPath() resolves into a directory,
+	 * getUserPrincipal() returns a fixed principal; all other methods return null, false or 0.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> T stub(
+			Class<T> type,
+			final Map<String, String> initParameters,
+			final File dir) {
+		return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				String _name = method.getName();
+				if (_name.equals("getInitParameter")) {
+					return initParameters.get(args[0]);
+				}
+				if (_name.equals("getRealPath")) {
+					return new File(dir, (String) args[0]).getPath();
+				}
+				if (_name.equals("getUserPrincipal")) {
+					return new Principal() {
+						@Override
+						public String getName() {
+							return "bench";
+						}
+					};
+				}
+				if (_name.equals("getRemoteUser")) {
+					return "bench";
+				}
+				Class<?> _type = method.getReturnType();
+				if (_type == boolean.class) {
+					return false;
+				}
+				if (_type == int.class) {
+					return 0;
+				}
+				if (_type == long.class) {
+					return 0L;
+				}
+				return null;
+			}
+		});
+	}
+}
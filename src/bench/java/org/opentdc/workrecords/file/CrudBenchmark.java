@@ -0,0 +1,119 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.workrecords.file;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opentdc.workrecords.WorkRecordModel;
+
+/**
+ * Single create, update and delete calls, with and without persistence.
+ * persistenceMode "none" runs with isPersistent=false; "snapshot-&lt;durability&gt;" writes data.json 
+ * with the given snapshotDurability, "journal" appends to data.journal.
+ * "partitioned-month" and "partitioned-company" write synchronously with snapshotPartitioning, i.e. only the
+ * partition of the changed workrecord is rewritten.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgs = { "-Xmx2g" })
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CrudBenchmark {
+	@Param({ "none", "snapshot-sync", "snapshot-group-commit", "snapshot-async", "journal", "partitioned-month", "partitioned-company" })
+	public String persistenceMode;
+
+	@Param({ "10000" })
+	public int recordCount;
+
+	private BenchmarkFileServiceProvider provider;
+	private String[] ids;
+	private int next = 0;
+
+	@Setup(Level.Trial)
+	public void setUp()
+			throws IOException {
+		Map<String, String> _params = new HashMap<String, String>();
+		boolean _persistent = !persistenceMode.equals("none");
+		if (persistenceMode.startsWith("snapshot-")) {
+			_params.put("persistenceMode", FileServiceProvider.PERSISTENCE_MODE_SNAPSHOT);
+			_params.put("snapshotDurability", persistenceMode.substring("snapshot-".length()));
+		} else if (persistenceMode.startsWith("partitioned-")) {
+			_params.put("persistenceMode", FileServiceProvider.PERSISTENCE_MODE_SNAPSHOT);
+			_params.put("snapshotPartitioning", persistenceMode.substring("partitioned-".length()));
+		} else if (_persistent) {
+			_params.put("persistenceMode", persistenceMode);
+		}
+		provider = BenchmarkFileServiceProvider.create(_params, _persistent);
+		ids = provider.seed(recordCount);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		BenchmarkFileServiceProvider.reset();
+	}
+
+	@Benchmark
+	public WorkRecordModel read() {
+		return provider.readWorkRecord(nextId());
+	}
+
+	@Benchmark
+	public WorkRecordModel update() {
+		String _id = nextId();
+		WorkRecordModel _model = WorkRecordStore.copyOf(FileServiceProvider.store.get(_id)).getModel();
+		_model.setComment("updated " + next);
+		return provider.updateWorkRecord(BenchmarkFileServiceProvider.REQUEST, _id, _model);
+	}
+
+	/**
+	 * Create a workrecord and delete it again, so that the size of the data set stays constant.
+	 */
+	@Benchmark
+	public void createAndDelete() {
+		WorkRecordModel _model = provider.createWorkRecord(BenchmarkFileServiceProvider.REQUEST, 
+				BenchmarkFileServiceProvider.newWorkRecord(next++));
+		provider.deleteWorkRecord(_model.getId());
+	}
+
+	private String nextId() {
+		return ids[next++ % ids.length];
+	}
+}
@@ -0,0 +1,103 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.workrecords.file;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opentdc.workrecords.WorkRecordModel;
+
+/**
+ * Full-text search with listWorkRecords() on data sets of increasing size: a rare term, a prefix,
+ * a rare term combined with a term that occurs in every comment, a project title, and a search ordered by startAt.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgs = { "-Xmx4g" })
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class FullTextSearchBenchmark {
+	@Param({ "1000", "100000", "1000000" })
+	public int recordCount;
+
+	private BenchmarkFileServiceProvider provider;
+	private String rareTerm;
+	private String prefix;
+
+	@Setup(Level.Trial)
+	public void setUp()
+			throws IOException {
+		provider = BenchmarkFileServiceProvider.create(new HashMap<String, String>(), false);
+		provider.seed(recordCount);
+		// the comments are "benchmark workrecord <i>"
+		rareTerm = Integer.toString(recordCount / 2);
+		prefix = rareTerm.substring(0, rareTerm.length() - 1);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		BenchmarkFileServiceProvider.reset();
+	}
+
+	@Benchmark
+	public ArrayList<WorkRecordModel> rareTerm() {
+		return provider.listWorkRecords(rareTerm, FileServiceProvider.QUERY_TYPE_FULLTEXT, 0, 50);
+	}
+
+	@Benchmark
+	public ArrayList<WorkRecordModel> prefix() {
+		return provider.listWorkRecords(prefix, FileServiceProvider.QUERY_TYPE_FULLTEXT, 0, 50);
+	}
+
+	@Benchmark
+	public ArrayList<WorkRecordModel> frequentAndRareTerm() {
+		return provider.listWorkRecords("benchmark " + rareTerm, FileServiceProvider.QUERY_TYPE_FULLTEXT, 0, 50);
+	}
+
+	@Benchmark
+	public ArrayList<WorkRecordModel> projectTitle() {
+		return provider.listWorkRecords("project" + (BenchmarkFileServiceProvider.PROJECTS / 2), FileServiceProvider.QUERY_TYPE_FULLTEXT, 0, 50);
+	}
+
+	@Benchmark
+	public ArrayList<WorkRecordModel> prefixByStartAt() {
+		return provider.listWorkRecords(prefix, FileServiceProvider.QUERY_TYPE_FULLTEXT_BY_START_AT, 0, 50);
+	}
+}
@@ -0,0 +1,105 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.workrecords.file;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opentdc.workrecords.WorkRecordModel;
+
+/**
+ * listWorkRecords() on data sets of increasing size: the first page, a deep page (offset pagination),
+ * the page after a cursor, and queries answered by the resource and startAt indexes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgs = { "-Xmx4g" })
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ListWorkRecordsBenchmark {
+	@Param({ "1000", "100000", "1000000" })
+	public int recordCount;
+
+	private BenchmarkFileServiceProvider provider;
+	private String cursor;
+	private String resourceQuery;
+	private String startAtQuery;
+
+	@Setup(Level.Trial)
+	public void setUp()
+			throws IOException {
+		provider = BenchmarkFileServiceProvider.create(new HashMap<String, String>(), false);
+		provider.seed(recordCount);
+		WorkRecordPage _page = provider.listWorkRecords(null, null, (String) null, recordCount / 2);
+		cursor = _page.getNextCursor();
+		resourceQuery = "resourceId=\"resource" + (BenchmarkFileServiceProvider.RESOURCES / 2) + "\"";
+		startAtQuery = "startAt>=\"2015-01-01\" and startAt<=\"2015-01-31\"";
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		BenchmarkFileServiceProvider.reset();
+	}
+
+	@Benchmark
+	public ArrayList<WorkRecordModel> firstPage() {
+		return provider.listWorkRecords(null, null, 0, 50);
+	}
+
+	@Benchmark
+	public ArrayList<WorkRecordModel> deepPage() {
+		return provider.listWorkRecords(null, null, recordCount / 2, 50);
+	}
+
+	@Benchmark
+	public WorkRecordPage pageAfterCursor() {
+		return provider.listWorkRecords(null, null, cursor, 50);
+	}
+
+	@Benchmark
+	public ArrayList<WorkRecordModel> byResource() {
+		return provider.listWorkRecords(resourceQuery, null, 0, 50);
+	}
+
+	@Benchmark
+	public ArrayList<WorkRecordModel> byStartAt() {
+		return provider.listWorkRecords(startAtQuery, null, 0, 50);
+	}
+}
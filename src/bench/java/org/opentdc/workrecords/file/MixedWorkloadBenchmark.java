@@ -0,0 +1,115 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.workrecords.file;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opentdc.workrecords.WorkRecordModel;
+
+/**
+ * Concurrent readers (list, read) and writers (update, create/delete) on a shared data set.
+ * Reports throughput per operation; contention shows up as a drop of the reader throughput.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgs = { "-Xmx2g" })
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MixedWorkloadBenchmark {
+	@Param({ "100000" })
+	public int recordCount;
+
+	private BenchmarkFileServiceProvider provider;
+	private String[] ids;
+
+	@Setup(Level.Trial)
+	public void setUp()
+			throws IOException {
+		provider = BenchmarkFileServiceProvider.create(new HashMap<String, String>(), false);
+		ids = provider.seed(recordCount);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		BenchmarkFileServiceProvider.reset();
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(4)
+	public ArrayList<WorkRecordModel> list() {
+		return provider.listWorkRecords("resourceId=\"resource" + ThreadLocalRandom.current().nextInt(BenchmarkFileServiceProvider.RESOURCES) + "\"", 
+				null, 0, 50);
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(4)
+	public WorkRecordModel read() {
+		return provider.readWorkRecord(randomId());
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(2)
+	public WorkRecordModel update() {
+		String _id = randomId();
+		WorkRecordModel _model = WorkRecordStore.copyOf(FileServiceProvider.store.get(_id)).getModel();
+		_model.setComment("updated " + System.nanoTime());
+		return provider.updateWorkRecord(BenchmarkFileServiceProvider.REQUEST, _id, _model);
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(1)
+	public void createAndDelete() {
+		WorkRecordModel _model = provider.createWorkRecord(BenchmarkFileServiceProvider.REQUEST, 
+				BenchmarkFileServiceProvider.newWorkRecord(ThreadLocalRandom.current().nextInt(recordCount)));
+		provider.deleteWorkRecord(_model.getId());
+	}
+
+	private String randomId() {
+		return ids[ThreadLocalRandom.current().nextInt(ids.length)];
+	}
+}
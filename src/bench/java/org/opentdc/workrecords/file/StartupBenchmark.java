@@ -0,0 +1,150 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.workrecords.file;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opentdc.service.TagRefModel;
+import org.opentdc.workrecords.TaggedWorkRecord;
+import org.opentdc.workrecords.WorkRecordModel;
+
+/**
+ * Startup: loading a JSON or binary snapshot into a WorkRecordStore with the object or the columnar storage engine.
+ * load() measures the time; retainedHeap() reports the heap used by the loaded store 
+ * in the auxiliary counter heapBytes (its time includes two full GCs and is not meaningful).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgs = { "-Xmx4g" })
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class StartupBenchmark {
+	@Param({ "100000", "1000000" })
+	public int recordCount;
+
+	@Param({ SnapshotWriter.FORMAT_JSON, SnapshotWriter.FORMAT_BINARY })
+	public String format;
+
+	@Param({ StorageEngine.ENGINE_OBJECT, StorageEngine.ENGINE_COLUMNAR })
+	public String engine;
+
+	private File snapshotF;
+
+	/**
+	 * Heap used by the loaded store, in bytes.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class HeapCounters {
+		public long heapBytes;
+	}
+
+	@Setup(Level.Trial)
+	public void setUp()
+			throws IOException {
+		List<TaggedWorkRecord> _workRecords = new ArrayList<TaggedWorkRecord>(recordCount);
+		for (int i = 0; i < recordCount; i++) {
+			WorkRecordModel _model = BenchmarkFileServiceProvider.newWorkRecord(i);
+			_model.setId("workrecord" + i);
+			_model.setCompanyTitle("Company " + _model.getCompanyId());
+			_model.setProjectTitle("Project " + _model.getProjectId());
+			_model.setResourceName("Resource " + _model.getResourceId());
+			_model.setCreatedAt(new Date());
+			_model.setCreatedBy("bench");
+			_model.setModifiedAt(_model.getCreatedAt());
+			_model.setModifiedBy("bench");
+			TaggedWorkRecord _taggedWR = new TaggedWorkRecord();
+			_taggedWR.setModel(_model);
+			if (i % 4 == 0) {
+				TagRefModel _tagRef = new TagRefModel("tag" + (i % 16));
+				_tagRef.setId("tagref" + i);
+				_tagRef.setCreatedAt(_model.getCreatedAt());
+				_tagRef.setCreatedBy("bench");
+				_taggedWR.addTagRef(_tagRef);
+			}
+			_workRecords.add(_taggedWR);
+		}
+		snapshotF = File.createTempFile("workrecords-bench", format.equals(SnapshotWriter.FORMAT_BINARY) ? ".bin" : ".json");
+		snapshotF.deleteOnExit();
+		FileOutputStream _out = new FileOutputStream(snapshotF);
+		try {
+			SnapshotWriter.write(_workRecords, _out, format);
+		}
+		finally {
+			_out.close();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		snapshotF.delete();
+	}
+
+	@Benchmark
+	public WorkRecordStore load()
+			throws IOException {
+		WorkRecordStore _store = new WorkRecordStore(engine.equals(StorageEngine.ENGINE_COLUMNAR) ?
+				new ColumnarStorageEngine() : new ObjectStorageEngine());
+		_store.load(SnapshotWriter.read(snapshotF, format));
+		return _store;
+	}
+
+	@Benchmark
+	public WorkRecordStore retainedHeap(
+			HeapCounters counters)
+			throws IOException {
+		long _before = usedHeap();
+		WorkRecordStore _store = load();
+		counters.heapBytes = usedHeap() - _before;
+		return _store;
+	}
+
+	private static long usedHeap() {
+		Runtime _runtime = Runtime.getRuntime();
+		System.gc();
+		System.gc();
+		return _runtime.totalMemory() - _runtime.freeMemory();
+	}
+}
@@ -0,0 +1,122 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.workrecords.file;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opentdc.workrecords.WorkRecordModel;
+
+/**
+ * Concurrent updates of a few hot workrecords (e.g. running timers updated by several devices).
+ * unconditional() updates without ifMatch, i.e. the compare-and-set is retried on a conflict;
+ * conditional() reads the ETag and updates with ifMatch; its auxiliary counters report the updates 
+ * that succeeded and the ones that failed with a VersionConflictException.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgs = { "-Xmx2g" })
+@Threads(8)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class UpdateContentionBenchmark {
+	@Param({ "1", "16", "1024" })
+	public int hotRecords;
+
+	@Param({ "10000" })
+	public int recordCount;
+
+	private BenchmarkFileServiceProvider provider;
+	private String[] ids;
+
+	/**
+	 * Outcome of the conditional updates.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class ConflictCounters {
+		public long updates;
+		public long conflicts;
+	}
+
+	@Setup(Level.Trial)
+	public void setUp()
+			throws IOException {
+		provider = BenchmarkFileServiceProvider.create(new HashMap<String, String>(), false);
+		ids = provider.seed(recordCount);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		BenchmarkFileServiceProvider.reset();
+	}
+
+	@Benchmark
+	public VersionedWorkRecord unconditional() {
+		String _id = hotId();
+		WorkRecordModel _model = WorkRecordStore.copyOf(FileServiceProvider.store.get(_id)).getModel();
+		_model.setRunning(!_model.isRunning());
+		return provider.updateWorkRecord(BenchmarkFileServiceProvider.REQUEST, _id, _model, null);
+	}
+
+	@Benchmark
+	public VersionedWorkRecord conditional(
+			ConflictCounters counters) {
+		String _id = hotId();
+		VersionedWorkRecord _read = provider.readVersionedWorkRecord(_id);
+		WorkRecordModel _model = WorkRecordStore.copyOf(FileServiceProvider.store.get(_id)).getModel();
+		_model.setRunning(!_read.getWorkRecord().isRunning());
+		try {
+			VersionedWorkRecord _updated = provider.updateWorkRecord(BenchmarkFileServiceProvider.REQUEST, _id, _model, _read.getEtag());
+			counters.updates++;
+			return _updated;
+		}
+		catch (VersionConflictException _ex) {
+			counters.conflicts++;
+			return _read;
+		}
+	}
+
+	private String hotId() {
+		return ids[ThreadLocalRandom.current().nextInt(Math.min(hotRecords, ids.length))];
+	}
+}
@@ -0,0 +1,313 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.workrecords.file;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Logger;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+
+import org.opentdc.service.TagRefModel;
+import org.opentdc.workrecords.WorkRecordModel;
+
+/**
+ * Asynchronous variant of the {@link FileServiceProvider} API: every operation returns a CompletableFuture and runs
+ * on a dedicated I/O executor ({@link WorkRecordIoExecutor}) instead of the servlet container thread, so that blocking 
+ * file I/O (journal, snapshot export, partition loads) and the lookups in the wtt and resources services do not 
+ * hold request threads. The results, exceptions and side effects are those of the synchronous operations;
+ * the future completes exceptionally with the exception of the operation.
+ *
+ * An HttpServletRequest is used on the I/O thread (for the principal); keep it valid until the future completes,
+ * e.g. with servlet async processing (AsyncContext).
+ *
+ * Init parameters (in addition to those of the FileServiceProvider):
+ * <ul>
+ * <li>asyncExecutor: auto (default; virtual threads if the runtime supports them), virtual or platform</li>
+ * <li>asyncThreads: the number of platform threads (default 16)</li>
+ * <li>asyncMaxPending: the maximal number of queued or running operations (default 1000)</li>
+ * <li>asyncBackpressure: reject (default; the future completes with a RejectedExecutionException) or callerRuns
+ * (the operation runs synchronously on the calling thread) when asyncMaxPending is reached</li>
+ * <li>asyncAcquireTimeout: the number of ms to wait for a free slot before the backpressure applies (default 0)</li>
+ * </ul>
+ */
+public class AsyncFileServiceProvider {
+	private static final int DEFAULT_ASYNC_THREADS = 16;
+	private static final int DEFAULT_ASYNC_MAX_PENDING = 1000;
+
+	private static final Logger logger = Logger.getLogger(AsyncFileServiceProvider.class.getName());
+	// one executor per web application, like the state of the FileServiceProvider
+	private static WorkRecordIoExecutor ioExecutor = null;
+
+	private final FileServiceProvider provider;
+	private final WorkRecordIoExecutor executor;
+
+	/**
+	 * Constructor.
+	 * @param context the servlet context (for config)
+	 * @param prefix the directory name where the seed and data.json reside (typically the classname of the service)
+	 * @throws IOException
+	 */
+	public AsyncFileServiceProvider(
+		ServletContext context,
+		String prefix
+	) throws IOException {
+		this(new FileServiceProvider(context, prefix), context);
+	}
+
+	/**
+	 * Constructor.
+	 * @param provider the provider that executes the operations
+	 * @param context the servlet context (for config)
+	 */
+	public AsyncFileServiceProvider(
+		FileServiceProvider provider,
+		ServletContext context
+	) {
+		this.provider = provider;
+		synchronized (AsyncFileServiceProvider.class) {
+			if (ioExecutor == null) {
+				String _type = context.getInitParameter("asyncExecutor");
+				logger.info("init parameter <asyncExecutor>=<" + _type + ">");
+				String _backpressure = context.getInitParameter("asyncBackpressure");
+				logger.info("init parameter <asyncBackpressure>=<" + _backpressure + ">");
+				if (_backpressure != null && !_backpressure.isEmpty() 
+						&& !WorkRecordIoExecutor.BACKPRESSURE_REJECT.equalsIgnoreCase(_backpressure)
+						&& !WorkRecordIoExecutor.BACKPRESSURE_CALLER_RUNS.equalsIgnoreCase(_backpressure)) {
+					logger.warning("init parameter <asyncBackpressure> is neither <" + WorkRecordIoExecutor.BACKPRESSURE_REJECT
+							+ "> nor <" + WorkRecordIoExecutor.BACKPRESSURE_CALLER_RUNS + ">; using <" + WorkRecordIoExecutor.BACKPRESSURE_REJECT + ">");
+				}
+				ioExecutor = new WorkRecordIoExecutor(
+					_type == null || _type.isEmpty() ? WorkRecordIoExecutor.EXECUTOR_AUTO : _type,
+					(int) Math.max(1, FileServiceProvider.parseLong(context, "asyncThreads", DEFAULT_ASYNC_THREADS)),
+					(int) Math.max(1, FileServiceProvider.parseLong(context, "asyncMaxPending", DEFAULT_ASYNC_MAX_PENDING)),
+					_backpressure,
+					FileServiceProvider.parseLong(context, "asyncAcquireTimeout", 0));
+			}
+			this.executor = ioExecutor;
+		}
+	}
+
+	/**
+	 * Stop the I/O executor (e.g. when the web application is stopped); pending operations are completed,
+	 * new operations are rejected. The next instance starts a new executor.
+	 */
+	public static synchronized void shutdown() {
+		if (ioExecutor != null) {
+			ioExecutor.shutdown();
+			ioExecutor = null;
+		}
+	}
+
+	/**
+	 * @return the provider that executes the operations
+	 */
+	public FileServiceProvider getProvider() {
+		return provider;
+	}
+
+	/**
+	 * @see FileServiceProvider#listWorkRecords(String, String, int, int)
+	 */
+	public CompletableFuture<List<WorkRecordModel>> listWorkRecords(
+		String query,
+		String queryType,
+		int position,
+		int size)
+	{
+		return executor.submit(() -> provider.listWorkRecords(query, queryType, position, size));
+	}
+
+	/**
+	 * @see FileServiceProvider#listWorkRecords(String, String, String, int)
+	 */
+	public CompletableFuture<WorkRecordPage> listWorkRecords(
+		String query,
+		String queryType,
+		String cursor,
+		int size)
+	{
+		return executor.submit(() -> provider.listWorkRecords(query, queryType, cursor, size));
+	}
+
+	/**
+	 * @see FileServiceProvider#listWorkRecordsByTag(String, String, String, int, int)
+	 */
+	public CompletableFuture<List<WorkRecordModel>> listWorkRecordsByTag(
+		String tagId,
+		String query,
+		String queryType,
+		int position,
+		int size)
+	{
+		return executor.submit(() -> provider.listWorkRecordsByTag(tagId, query, queryType, position, size));
+	}
+
+	/**
+	 * @see FileServiceProvider#aggregateWorkRecords(String, String, String)
+	 */
+	public CompletableFuture<List<WorkRecordTotal>> aggregateWorkRecords(
+		String query,
+		String queryType,
+		String groupBy)
+	{
+		return executor.submit(() -> provider.aggregateWorkRecords(query, queryType, groupBy));
+	}
+
+	/**
+	 * @see FileServiceProvider#listChanges(long, int)
+	 */
+	public CompletableFuture<WorkRecordChanges> listChanges(
+		long since,
+		int size)
+	{
+		return executor.submit(() -> provider.listChanges(since, size));
+	}
+
+	/**
+	 * @see FileServiceProvider#createWorkRecord(HttpServletRequest, WorkRecordModel)
+	 */
+	public CompletableFuture<WorkRecordModel> createWorkRecord(
+		HttpServletRequest request,
+		WorkRecordModel workrecord)
+	{
+		return executor.submit(() -> provider.createWorkRecord(request, workrecord));
+	}
+
+	/**
+	 * @see FileServiceProvider#readWorkRecord(String)
+	 */
+	public CompletableFuture<WorkRecordModel> readWorkRecord(
+		String id)
+	{
+		return executor.submit(() -> provider.readWorkRecord(id));
+	}
+
+	/**
+	 * @see FileServiceProvider#readVersionedWorkRecord(String)
+	 */
+	public CompletableFuture<VersionedWorkRecord> readVersionedWorkRecord(
+		String id)
+	{
+		return executor.submit(() -> provider.readVersionedWorkRecord(id));
+	}
+
+	/**
+	 * @see FileServiceProvider#updateWorkRecord(HttpServletRequest, String, WorkRecordModel, String)
+	 */
+	public CompletableFuture<VersionedWorkRecord> updateWorkRecord(
+		HttpServletRequest request,
+		String id,
+		WorkRecordModel workrecord,
+		String ifMatch)
+	{
+		return executor.submit(() -> provider.updateWorkRecord(request, id, workrecord, ifMatch));
+	}
+
+	/**
+	 * @see FileServiceProvider#deleteWorkRecord(String)
+	 */
+	public CompletableFuture<Void> deleteWorkRecord(
+		String id)
+	{
+		return executor.submit(() -> {
+			provider.deleteWorkRecord(id);
+			return null;
+		});
+	}
+
+	/**
+	 * @see FileServiceProvider#listTagRefs(String, String, String, int, int)
+	 */
+	public CompletableFuture<List<TagRefModel>> listTagRefs(
+		String id,
+		String query,
+		String queryType,
+		int position,
+		int size)
+	{
+		return executor.submit(() -> provider.listTagRefs(id, query, queryType, position, size));
+	}
+
+	/**
+	 * @see FileServiceProvider#createTagRef(HttpServletRequest, String, TagRefModel)
+	 */
+	public CompletableFuture<TagRefModel> createTagRef(
+		HttpServletRequest request,
+		String workRecordId,
+		TagRefModel model)
+	{
+		return executor.submit(() -> provider.createTagRef(request, workRecordId, model));
+	}
+
+	/**
+	 * @see FileServiceProvider#readTagRef(String, String)
+	 */
+	public CompletableFuture<TagRefModel> readTagRef(
+		String workRecordId,
+		String tagRefId)
+	{
+		return executor.submit(() -> provider.readTagRef(workRecordId, tagRefId));
+	}
+
+	/**
+	 * @see FileServiceProvider#deleteTagRef(String, String)
+	 */
+	public CompletableFuture<Void> deleteTagRef(
+		String workRecordId,
+		String tagRefId)
+	{
+		return executor.submit(() -> {
+			provider.deleteTagRef(workRecordId, tagRefId);
+			return null;
+		});
+	}
+
+	/**
+	 * @see FileServiceProvider#addTags(HttpServletRequest, String, String)
+	 */
+	public CompletableFuture<List<TagRefModel>> addTags(
+		HttpServletRequest request,
+		String workRecordId,
+		String tagIdList)
+	{
+		return executor.submit(() -> provider.addTags(request, workRecordId, tagIdList));
+	}
+
+	/**
+	 * The metrics of the provider (see {@link FileServiceProvider#getMetrics()}), plus the number of pending 
+	 * and rejected asynchronous operations.
+	 * @return metric name -> value
+	 */
+	public Map<String, Long> getMetrics() {
+		Map<String, Long> _metrics = provider.getMetrics();
+		_metrics.put("async.pending", (long) executor.pending());
+		_metrics.put("async.rejected", executor.rejected());
+		_metrics.put("async.virtualThreads", executor.isVirtual() ? 1L : 0L);
+		return _metrics;
+	}
+}
@@ -0,0 +1,280 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.workrecords.file;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opentdc.service.TagRefModel;
+import org.opentdc.workrecords.TaggedWorkRecord;
+import org.opentdc.workrecords.WorkRecordModel;
+
+/**
+ * Binary snapshot format (data.bin) of the workrecords and their tagRefs.
+ * Compared to data.json, it is smaller and much faster to load: the file is memory-mapped and read sequentially,
+ * and the repeated strings (company, project and resource ids and titles, tag ids, principals) are stored
+ * once in a string table, so that the loaded workrecords share one String instance per distinct value.
+ *
+ * Layout (big-endian):
+ * <pre>
+ * header:       int MAGIC, int VERSION
+ * string table: int count, count x (int length, length x byte UTF-8)
+ * records:      int count, count x record
+ * record:       11 x int string (id, companyId, companyTitle, projectId, projectTitle, resourceId, resourceName,
+ *               comment, tagIdList, createdBy, modifiedBy),
+ *               3 x long date (startAt, createdAt, modifiedAt),
+ *               int durationHours, int durationMinutes, byte flags (billable, running, paused),
+ *               int tagRefCount, tagRefCount x (int id, int tagId, long createdAt, int createdBy)
+ * </pre>
+ * Strings are indexes into the string table (-1 for null); dates are ms since the epoch (Long.MIN_VALUE for null).
+ */
+class BinarySnapshot {
+	static final int MAGIC = 0x4f545752;	// "OTWR"
+	static final int VERSION = 1;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int NULL_STRING = -1;
+	private static final long NULL_DATE = Long.MIN_VALUE;
+	private static final int BILLABLE = 1;
+	private static final int RUNNING = 2;
+	private static final int PAUSED = 4;
+
+	/**
+	 * Write the workrecords in the binary format.
+	 * @param workRecords the workrecords
+	 * @param out the stream to write to; it is not closed
+	 * @throws IOException
+	 */
+	static void write(
+			Collection<TaggedWorkRecord> workRecords,
+			OutputStream out)
+			throws IOException {
+		// pass 1: string table
+		Map<String, Integer> _strings = new HashMap<String, Integer>();
+		List<String> _table = new ArrayList<String>();
+		for (TaggedWorkRecord _taggedWR : workRecords) {
+			WorkRecordModel _model = _taggedWR.getModel();
+			for (String _s : strings(_model)) {
+				intern(_s, _strings, _table);
+			}
+			for (TagRefModel _tagRef : _taggedWR.getTagRefs()) {
+				intern(_tagRef.getId(), _strings, _table);
+				intern(_tagRef.getTagId(), _strings, _table);
+				intern(_tagRef.getCreatedBy(), _strings, _table);
+			}
+		}
+		// pass 2: header, string table, records
+		DataOutputStream _out = new DataOutputStream(new BufferedOutputStream(out, 65536));
+		_out.writeInt(MAGIC);
+		_out.writeInt(VERSION);
+		_out.writeInt(_table.size());
+		for (String _s : _table) {
+			byte[] _bytes = _s.getBytes(UTF8);
+			_out.writeInt(_bytes.length);
+			_out.write(_bytes);
+		}
+		_out.writeInt(workRecords.size());
+		for (TaggedWorkRecord _taggedWR : workRecords) {
+			WorkRecordModel _model = _taggedWR.getModel();
+			for (String _s : strings(_model)) {
+				writeString(_out, _s, _strings);
+			}
+			writeDate(_out, _model.getStartAt());
+			writeDate(_out, _model.getCreatedAt());
+			writeDate(_out, _model.getModifiedAt());
+			_out.writeInt(_model.getDurationHours());
+			_out.writeInt(_model.getDurationMinutes());
+			_out.writeByte((_model.isBillable() ? BILLABLE : 0) | (_model.isRunning() ? RUNNING : 0) | (_model.isPaused() ? PAUSED : 0));
+			List<TagRefModel> _tagRefs = _taggedWR.getTagRefs();
+			_out.writeInt(_tagRefs.size());
+			for (TagRefModel _tagRef : _tagRefs) {
+				writeString(_out, _tagRef.getId(), _strings);
+				writeString(_out, _tagRef.getTagId(), _strings);
+				writeDate(_out, _tagRef.getCreatedAt());
+				writeString(_out, _tagRef.getCreatedBy(), _strings);
+			}
+		}
+		_out.flush();
+	}
+
+	/**
+	 * The string attributes of a workrecord, in the order of the format.
+	 */
+	private static String[] strings(
+			WorkRecordModel model) {
+		return new String[] {
+			model.getId(),
+			model.getCompanyId(),
+			model.getCompanyTitle(),
+			model.getProjectId(),
+			model.getProjectTitle(),
+			model.getResourceId(),
+			model.getResourceName(),
+			model.getComment(),
+			model.getTagIdList(),
+			model.getCreatedBy(),
+			model.getModifiedBy()
+		};
+	}
+
+	private static void intern(
+			String s,
+			Map<String, Integer> strings,
+			List<String> table) {
+		if (s != null && !strings.containsKey(s)) {
+			strings.put(s, table.size());
+			table.add(s);
+		}
+	}
+
+	private static void writeString(
+			DataOutputStream out,
+			String s,
+			Map<String, Integer> strings)
+			throws IOException {
+		out.writeInt(s == null ? NULL_STRING : strings.get(s));
+	}
+
+	private static void writeDate(
+			DataOutputStream out,
+			Date date)
+			throws IOException {
+		out.writeLong(date == null ? NULL_DATE : date.getTime());
+	}
+
+	/**
+	 * Load a binary snapshot through a memory-mapped file.
+	 * @param f the snapshot file
+	 * @return the workrecords
+	 * @throws IOException if the file can not be read, or if it is not a binary snapshot of a supported version
+	 */
+	static List<TaggedWorkRecord> read(
+			File f)
+			throws IOException {
+		RandomAccessFile _file = new RandomAccessFile(f, "r");
+		try {
+			FileChannel _channel = _file.getChannel();
+			if (_channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("binary snapshot <" + f + "> is too large to be mapped.");
+			}
+			MappedByteBuffer _buf = _channel.map(FileChannel.MapMode.READ_ONLY, 0, _channel.size());
+			return read(_buf, f);
+		}
+		catch (RuntimeException _ex) {
+			// BufferUnderflowException, IndexOutOfBoundsException: truncated or corrupt file
+			throw new IOException("binary snapshot <" + f + "> is corrupt: " + _ex);
+		}
+		finally {
+			_file.close();
+		}
+	}
+
+	private static List<TaggedWorkRecord> read(
+			ByteBuffer buf,
+			File f)
+			throws IOException {
+		if (buf.getInt() != MAGIC) {
+			throw new IOException("<" + f + "> is not a binary workrecord snapshot.");
+		}
+		int _version = buf.getInt();
+		if (_version != VERSION) {
+			throw new IOException("binary snapshot <" + f + "> has the unsupported version <" + _version + ">.");
+		}
+		String[] _table = new String[buf.getInt()];
+		byte[] _bytes = new byte[256];
+		for (int i = 0; i < _table.length; i++) {
+			int _length = buf.getInt();
+			if (_length > _bytes.length) {
+				_bytes = new byte[Math.max(_length, _bytes.length * 2)];
+			}
+			buf.get(_bytes, 0, _length);
+			_table[i] = new String(_bytes, 0, _length, UTF8);
+		}
+		int _count = buf.getInt();
+		List<TaggedWorkRecord> _workRecords = new ArrayList<TaggedWorkRecord>(_count);
+		for (int i = 0; i < _count; i++) {
+			WorkRecordModel _model = new WorkRecordModel();
+			_model.setId(readString(buf, _table));
+			_model.setCompanyId(readString(buf, _table));
+			_model.setCompanyTitle(readString(buf, _table));
+			_model.setProjectId(readString(buf, _table));
+			_model.setProjectTitle(readString(buf, _table));
+			_model.setResourceId(readString(buf, _table));
+			_model.setResourceName(readString(buf, _table));
+			_model.setComment(readString(buf, _table));
+			_model.setTagIdList(readString(buf, _table));
+			_model.setCreatedBy(readString(buf, _table));
+			_model.setModifiedBy(readString(buf, _table));
+			_model.setStartAt(readDate(buf));
+			_model.setCreatedAt(readDate(buf));
+			_model.setModifiedAt(readDate(buf));
+			_model.setDurationHours(buf.getInt());
+			_model.setDurationMinutes(buf.getInt());
+			int _flags = buf.get();
+			_model.setBillable((_flags & BILLABLE) != 0);
+			_model.setRunning((_flags & RUNNING) != 0);
+			_model.setPaused((_flags & PAUSED) != 0);
+			TaggedWorkRecord _taggedWR = new TaggedWorkRecord();
+			_taggedWR.setModel(_model);
+			int _tagRefs = buf.getInt();
+			for (int j = 0; j < _tagRefs; j++) {
+				TagRefModel _tagRef = new TagRefModel();
+				_tagRef.setId(readString(buf, _table));
+				_tagRef.setTagId(readString(buf, _table));
+				_tagRef.setCreatedAt(readDate(buf));
+				_tagRef.setCreatedBy(readString(buf, _table));
+				_taggedWR.addTagRef(_tagRef);
+			}
+			_workRecords.add(_taggedWR);
+		}
+		return _workRecords;
+	}
+
+	private static String readString(
+			ByteBuffer buf,
+			String[] table) {
+		int _index = buf.getInt();
+		return _index == NULL_STRING ? null : table[_index];
+	}
+
+	private static Date readDate(
+			ByteBuffer buf) {
+		long _time = buf.getLong();
+		return _time == NULL_DATE ? null : new Date(_time);
+	}
+}
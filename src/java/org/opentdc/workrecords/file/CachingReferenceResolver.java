@@ -0,0 +1,217 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.workrecords.file;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opentdc.resources.ResourceModel;
+import org.opentdc.service.exception.NotFoundException;
+import org.opentdc.wtt.CompanyModel;
+import org.opentdc.wtt.ProjectModel;
+
+/**
+ * A ReferenceResolver that caches companies, projects and resources.
+ * Each cache is bounded (least recently used entries are evicted first) and its entries expire after a time to live.
+ * References that are not found are not cached. When a company, project or resource is renamed,
+ * its entry must be invalidated (see {@link FileServiceProvider#projectRenamed(String)} and friends);
+ * therefore the cache is only used if the init parameter referenceCacheSize is set.
+ * The hits, misses and evictions of each cache are exported with the {@link WorkRecordMetrics}.
+ */
+class CachingReferenceResolver extends ReferenceResolver {
+	private final ReferenceResolver delegate;
+	private final Cache<CompanyModel> companies;
+	private final Cache<ProjectModel> projects;
+	private final Cache<ResourceModel> resources;
+
+	/**
+	 * Constructor.
+	 * @param delegate the resolver that looks up the references on a cache miss
+	 * @param maxSize the maximal number of entries per cache
+	 * @param ttl the time to live of an entry in ms
+	 */
+	CachingReferenceResolver(
+			ReferenceResolver delegate,
+			int maxSize,
+			long ttl) {
+		this.delegate = delegate;
+		this.companies = new Cache<CompanyModel>("companies", maxSize, ttl);
+		this.projects = new Cache<ProjectModel>("projects", maxSize, ttl);
+		this.resources = new Cache<ResourceModel>("resources", maxSize, ttl);
+	}
+
+	@Override
+	CompanyModel getCompany(
+			String id)
+			throws NotFoundException {
+		CompanyModel _company = companies.get(id);
+		if (_company == null) {
+			_company = delegate.getCompany(id);
+			companies.put(id, _company);
+		}
+		return _company;
+	}
+
+	@Override
+	ProjectModel getProject(
+			String id)
+			throws NotFoundException {
+		ProjectModel _project = projects.get(id);
+		if (_project == null) {
+			_project = delegate.getProject(id);
+			projects.put(id, _project);
+		}
+		return _project;
+	}
+
+	@Override
+	ResourceModel getResourceModel(
+			String id)
+			throws NotFoundException {
+		ResourceModel _resource = resources.get(id);
+		if (_resource == null) {
+			_resource = delegate.getResourceModel(id);
+			resources.put(id, _resource);
+		}
+		return _resource;
+	}
+
+	void invalidateCompany(
+			String id) {
+		companies.invalidate(id);
+	}
+
+	void invalidateProject(
+			String id) {
+		projects.invalidate(id);
+	}
+
+	void invalidateResource(
+			String id) {
+		resources.invalidate(id);
+	}
+
+	Cache<CompanyModel> getCompanyCache() {
+		return companies;
+	}
+
+	Cache<ProjectModel> getProjectCache() {
+		return projects;
+	}
+
+	Cache<ResourceModel> getResourceCache() {
+		return resources;
+	}
+
+	/**
+	 * A bounded LRU cache with a time to live and hit/miss counters.
+	 */
+	static class Cache<V> {
+		private final String name;
+		private final long ttl;
+		private final LinkedHashMap<String, CacheEntry<V>> entries;
+		private final AtomicLong hits = new AtomicLong();
+		private final AtomicLong misses = new AtomicLong();
+		private final AtomicLong evictions = new AtomicLong();
+
+		Cache(String name, final int maxSize, long ttl) {
+			this.name = name;
+			this.ttl = ttl;
+			// access order: the eldest entry is the least recently used one
+			this.entries = new LinkedHashMap<String, CacheEntry<V>>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, CacheEntry<V>> eldest) {
+					if (size() > maxSize) {
+						evictions.incrementAndGet();
+						return true;
+					}
+					return false;
+				}
+			};
+		}
+
+		/**
+		 * @param id the id of the reference
+		 * @return the cached value or null if it is not cached or expired
+		 */
+		synchronized V get(
+				String id) {
+			CacheEntry<V> _entry = entries.get(id);
+			if (_entry == null || _entry.expiresAt < System.currentTimeMillis()) {
+				if (_entry != null) {
+					entries.remove(id);
+					evictions.incrementAndGet();
+				}
+				misses.incrementAndGet();
+				return null;
+			}
+			hits.incrementAndGet();
+			return _entry.value;
+		}
+
+		synchronized void put(
+				String id,
+				V value) {
+			entries.put(id, new CacheEntry<V>(value, System.currentTimeMillis() + ttl));
+		}
+
+		synchronized void invalidate(
+				String id) {
+			entries.remove(id);
+		}
+
+		String getName() {
+			return name;
+		}
+
+		synchronized int size() {
+			return entries.size();
+		}
+
+		long getHits() {
+			return hits.get();
+		}
+
+		long getMisses() {
+			return misses.get();
+		}
+
+		long getEvictions() {
+			return evictions.get();
+		}
+	}
+
+	private static class CacheEntry<V> {
+		final V value;
+		final long expiresAt;
+
+		CacheEntry(V value, long expiresAt) {
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
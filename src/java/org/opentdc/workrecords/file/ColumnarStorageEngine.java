@@ -0,0 +1,227 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.workrecords.file;
+
+import java.util.Date;
+import java.util.List;
+
+import org.opentdc.service.TagRefModel;
+import org.opentdc.workrecords.TaggedWorkRecord;
+import org.opentdc.workrecords.WorkRecordModel;
+
+/**
+ * Keeps each workrecord in a compact, column-like encoding: the references with few distinct values (company, project,
+ * resource and tag ids, createdBy) are dictionary-encoded, dates are stored as primitive longs,
+ * and the durations and the billable/running/paused flags are packed into one long.
+ * The {@link StringDictionary} never forgets a string; therefore the values that change with renames, retags and
+ * updates (titles, resourceName, tagIdList, modifiedBy), the id and the comment are kept as strings of their own,
+ * so that the dictionary does not grow with the number of updates.
+ *
+ * The encoding is row-wise: every version of a workrecord is one immutable object, so that the copy-on-write
+ * publication of the {@link WorkRecordStore} (and its lock-free readers) work unchanged.
+ * TaggedWorkRecords are materialized on every read; this trades CPU for heap.
+ */
+class ColumnarStorageEngine implements StorageEngine {
+	private static final long NULL_DATE = Long.MIN_VALUE;
+	private static final int BILLABLE = 1;
+	private static final int RUNNING = 2;
+	private static final int PAUSED = 4;
+	// ColumnarWorkRecord: header, 9 references, 4 ints, 5 longs
+	private static final int ROW_BYTES = 104;
+
+	private final StringDictionary dictionary = new StringDictionary();
+
+	@Override
+	public StoredWorkRecord store(
+			TaggedWorkRecord workRecord,
+			long version) {
+		return new ColumnarWorkRecord(dictionary, workRecord, version);
+	}
+
+	@Override
+	public long sharedBytes() {
+		return dictionary.estimateBytes();
+	}
+
+	@Override
+	public String getName() {
+		return ENGINE_COLUMNAR;
+	}
+
+	private static long encodeDate(
+			Date date) {
+		return date == null ? NULL_DATE : date.getTime();
+	}
+
+	private static Date decodeDate(
+			long date) {
+		return date == NULL_DATE ? null : new Date(date);
+	}
+
+	static class ColumnarWorkRecord extends StoredWorkRecord {
+		private final StringDictionary dictionary;
+		private final String id;
+		private final String comment;
+		private final String companyTitle;
+		private final String projectTitle;
+		private final String resourceName;
+		private final String tagIdList;
+		private final String modifiedBy;
+		private final int companyId;
+		private final int projectId;
+		private final int resourceId;
+		private final int createdBy;
+		private final long startAt;
+		private final long createdAt;
+		private final long modifiedAt;
+		// durationHours (bits 32-63), durationMinutes (bits 3-31), flags (bits 0-2)
+		private final long durations;
+		private final TagRefColumns tagRefs;
+
+		ColumnarWorkRecord(
+				StringDictionary dictionary,
+				TaggedWorkRecord workRecord,
+				long version) {
+			super(version);
+			WorkRecordModel _model = workRecord.getModel();
+			this.dictionary = dictionary;
+			this.id = _model.getId();
+			this.comment = _model.getComment();
+			this.companyId = dictionary.encode(_model.getCompanyId());
+			this.companyTitle = _model.getCompanyTitle();
+			this.projectId = dictionary.encode(_model.getProjectId());
+			this.projectTitle = _model.getProjectTitle();
+			this.resourceId = dictionary.encode(_model.getResourceId());
+			this.resourceName = _model.getResourceName();
+			this.tagIdList = _model.getTagIdList();
+			this.createdBy = dictionary.encode(_model.getCreatedBy());
+			this.modifiedBy = _model.getModifiedBy();
+			this.startAt = encodeDate(_model.getStartAt());
+			this.createdAt = encodeDate(_model.getCreatedAt());
+			this.modifiedAt = encodeDate(_model.getModifiedAt());
+			this.durations = ((long) _model.getDurationHours() << 32)
+					| ((_model.getDurationMinutes() & 0x1fffffffL) << 3)
+					| (_model.isBillable() ? BILLABLE : 0) | (_model.isRunning() ? RUNNING : 0) | (_model.isPaused() ? PAUSED : 0);
+			List<TagRefModel> _tagRefs = workRecord.getTagRefs();
+			this.tagRefs = _tagRefs.isEmpty() ? null : new TagRefColumns(dictionary, _tagRefs);
+		}
+
+		@Override
+		String getId() {
+			return id;
+		}
+
+		@Override
+		long getStartAt() {
+			return startAt;		// NULL_DATE is Long.MIN_VALUE
+		}
+
+		@Override
+		TaggedWorkRecord materialize() {
+			WorkRecordModel _model = new WorkRecordModel();
+			_model.setId(id);
+			_model.setComment(comment);
+			_model.setCompanyId(dictionary.decode(companyId));
+			_model.setCompanyTitle(companyTitle);
+			_model.setProjectId(dictionary.decode(projectId));
+			_model.setProjectTitle(projectTitle);
+			_model.setResourceId(dictionary.decode(resourceId));
+			_model.setResourceName(resourceName);
+			_model.setTagIdList(tagIdList);
+			_model.setCreatedBy(dictionary.decode(createdBy));
+			_model.setModifiedBy(modifiedBy);
+			_model.setStartAt(decodeDate(startAt));
+			_model.setCreatedAt(decodeDate(createdAt));
+			_model.setModifiedAt(decodeDate(modifiedAt));
+			_model.setDurationHours((int) (durations >> 32));
+			_model.setDurationMinutes(((int) durations) >> 3);
+			_model.setBillable((durations & BILLABLE) != 0);
+			_model.setRunning((durations & RUNNING) != 0);
+			_model.setPaused((durations & PAUSED) != 0);
+			TaggedWorkRecord _workRecord = new TaggedWorkRecord();
+			_workRecord.setModel(_model);
+			if (tagRefs != null) {
+				tagRefs.materialize(dictionary, _workRecord);
+			}
+			return _workRecord;
+		}
+
+		@Override
+		long estimateBytes() {
+			return ROW_BYTES + stringBytes(id) + stringBytes(comment) + stringBytes(companyTitle) + stringBytes(projectTitle)
+					+ stringBytes(resourceName) + stringBytes(tagIdList) + stringBytes(modifiedBy) 
+					+ (tagRefs == null ? 0 : tagRefs.estimateBytes());
+		}
+	}
+
+	/**
+	 * The tagRefs of one workrecord, one array per attribute.
+	 */
+	static class TagRefColumns {
+		private final String[] ids;
+		private final int[] tagIds;
+		private final long[] createdAts;
+		private final int[] createdBys;
+
+		TagRefColumns(
+				StringDictionary dictionary,
+				List<TagRefModel> tagRefs) {
+			int _size = tagRefs.size();
+			ids = new String[_size];
+			tagIds = new int[_size];
+			createdAts = new long[_size];
+			createdBys = new int[_size];
+			for (int i = 0; i < _size; i++) {
+				TagRefModel _tagRef = tagRefs.get(i);
+				ids[i] = _tagRef.getId();
+				tagIds[i] = dictionary.encode(_tagRef.getTagId());
+				createdAts[i] = encodeDate(_tagRef.getCreatedAt());
+				createdBys[i] = dictionary.encode(_tagRef.getCreatedBy());
+			}
+		}
+
+		void materialize(
+				StringDictionary dictionary,
+				TaggedWorkRecord workRecord) {
+			for (int i = 0; i < ids.length; i++) {
+				TagRefModel _tagRef = new TagRefModel();
+				_tagRef.setId(ids[i]);
+				_tagRef.setTagId(dictionary.decode(tagIds[i]));
+				_tagRef.setCreatedAt(decodeDate(createdAts[i]));
+				_tagRef.setCreatedBy(dictionary.decode(createdBys[i]));
+				workRecord.addTagRef(_tagRef);
+			}
+		}
+
+		long estimateBytes() {
+			long _bytes = StoredWorkRecord.align(StoredWorkRecord.OBJECT_HEADER_BYTES + 4 * StoredWorkRecord.REFERENCE_BYTES)
+					+ StoredWorkRecord.align(16 + 4L * ids.length) * 3
+					+ StoredWorkRecord.align(16 + 8L * ids.length);
+			for (String _id : ids) {
+				_bytes += StoredWorkRecord.stringBytes(_id);
+			}
+			return _bytes;
+		}
+	}
+}
@@ -23,15 +23,28 @@
  */
 package org.opentdc.workrecords.file;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.TimeZone;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.servlet.ServletContext;
@@ -44,7 +57,6 @@ import org.opentdc.service.exception.InternalServerErrorException;
 import org.opentdc.service.exception.NotFoundException;
 import org.opentdc.service.exception.ValidationException;
 import org.opentdc.util.LanguageCode;
-import org.opentdc.util.PrettyPrinter;
 import org.opentdc.workrecords.ServiceProvider;
 import org.opentdc.service.ServiceUtil;
 import org.opentdc.service.TagRefModel;
@@ -54,12 +66,48 @@ import org.opentdc.workrecords.WorkRecordQueryHandler;
 import org.opentdc.wtt.CompanyModel;
 import org.opentdc.wtt.ProjectModel;
 
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
+
 public class FileServiceProvider extends AbstractFileServiceProvider<TaggedWorkRecord> implements ServiceProvider {
 
-	protected static Map<String, TaggedWorkRecord> index = null;
-	protected static Map<String, TagRefModel> tagRefIndex = null;
+	protected static WorkRecordStore store = null;
 	protected static Logger logger = null;
 	protected static boolean isResourceDerived = true;
+	protected static WorkRecordJournal journal = null;
+	protected static ScheduledExecutorService compactor = null;
+	protected static SnapshotWriter snapshotWriter = null;
+	protected static ReferenceResolver referenceResolver = new ReferenceResolver();
+	protected static ExecutorService rederiver = null;
+	protected static WorkRecordChangeFeed changeFeed = null;
+	protected static WorkRecordPartitions partitions = null;
+	protected static WorkRecordMetrics metrics = new WorkRecordMetrics(false);
+	private static final Gson bulkGson = new GsonBuilder().create();
+
+	public static final String PERSISTENCE_MODE_SNAPSHOT = "snapshot";
+	public static final String PERSISTENCE_MODE_JOURNAL = "journal";
+	// queryTypes of listWorkRecords that search the query as text in comment, projectTitle and resourceName
+	public static final String QUERY_TYPE_FULLTEXT = "fulltext";					// ordered by relevance
+	public static final String QUERY_TYPE_FULLTEXT_BY_START_AT = "fulltextByStartAt";	// ordered like all other lists
+	private static final long DEFAULT_COMPACTION_INTERVAL = 60;	// seconds
+	private static final int DEFAULT_COMPACTION_THRESHOLD = 1000;	// journal entries
+	private static final String CURSOR_VERSION = "1:";
+	// entries per cache; the cache is off unless the services of companies, projects and resources
+	// report renames through companyRenamed(), projectRenamed() and resourceRenamed()
+	private static final long DEFAULT_REFERENCE_CACHE_SIZE = 0;
+	private static final long DEFAULT_REFERENCE_CACHE_TTL = 300;		// seconds
+	private static final long DEFAULT_SNAPSHOT_FLUSH_INTERVAL = 1000;	// ms
+	private static final int DEFAULT_SNAPSHOT_FLUSH_THRESHOLD = 100;	// changes
+	private static final int DEFAULT_CHANGE_FEED_CAPACITY = 10000;		// changes
+	private static final int DEFAULT_PARTITION_ACTIVE_MONTHS = 2;
+	private static final int MAX_OPTIMISTIC_ATTEMPTS = 8;		// of an unconditional update, before it takes the lock
+	private static final long SHUTDOWN_TIMEOUT = 30;		// seconds to wait for a running background task
 
 	/**
 	 * Constructor.
@@ -72,22 +120,407 @@ public class FileServiceProvider extends AbstractFileServiceProvider<TaggedWorkR
 		String prefix
 	) throws IOException {
 		super(context, prefix);
-		if (index == null) {
-			index = new HashMap<String, TaggedWorkRecord>();
-			List<TaggedWorkRecord> _workRecords = importJson();
-			for (TaggedWorkRecord _workRecord : _workRecords) {
-				index.put(_workRecord.getModel().getId(), _workRecord);
+		if (store == null) {
+			logger = Logger.getLogger(FileServiceProvider.class.getName());
+			String _metricsEnabled = context.getInitParameter("metricsEnabled");
+			logger.info("init parameter <metricsEnabled>=<" + _metricsEnabled + ">");
+			WorkRecordMetrics _metrics = new WorkRecordMetrics(_metricsEnabled == null || _metricsEnabled.isEmpty() 
+					|| Boolean.parseBoolean(_metricsEnabled));
+			String _persistenceMode = context.getInitParameter("persistenceMode");
+			logger.info("init parameter <persistenceMode>=<" + _persistenceMode + ">");
+			String _engine = context.getInitParameter("storageEngine");
+			logger.info("init parameter <storageEngine>=<" + _engine + ">");
+			String _timeZone = context.getInitParameter("aggregationTimeZone");
+			logger.info("init parameter <aggregationTimeZone>=<" + _timeZone + ">");
+			TimeZone _tz = _timeZone == null || _timeZone.isEmpty() ? TimeZone.getDefault() : TimeZone.getTimeZone(_timeZone);
+			WorkRecordStore _store = new WorkRecordStore(
+					StorageEngine.ENGINE_COLUMNAR.equalsIgnoreCase(_engine) ? new ColumnarStorageEngine() : new ObjectStorageEngine(),
+					_tz);
+			File _dataDir = new File(context.getRealPath("/" + prefix));
+			String _format = context.getInitParameter("snapshotFormat");
+			logger.info("init parameter <snapshotFormat>=<" + _format + ">");
+			_format = SnapshotWriter.FORMAT_BINARY.equalsIgnoreCase(_format) ? SnapshotWriter.FORMAT_BINARY : SnapshotWriter.FORMAT_JSON;
+			boolean _isJournal = PERSISTENCE_MODE_JOURNAL.equalsIgnoreCase(_persistenceMode);
+			String _partitioning = context.getInitParameter("snapshotPartitioning");
+			logger.info("init parameter <snapshotPartitioning>=<" + _partitioning + ">");
+			WorkRecordPartitions _partitions = null;
+			if (WorkRecordPartitions.SCHEME_MONTH.equalsIgnoreCase(_partitioning) || WorkRecordPartitions.SCHEME_COMPANY.equalsIgnoreCase(_partitioning)) {
+				if (_isJournal) {
+					// the journal is replayed on top of all workrecords; it can not be combined with lazily loaded partitions
+					logger.warning("init parameter <snapshotPartitioning> is not supported with persistenceMode <journal>; it is ignored.");
+				} else {
+					_partitions = new WorkRecordPartitions(_dataDir, _partitioning.toLowerCase(Locale.ROOT), _format, _store, _tz,
+						(int) parseLong(context, "snapshotPartitionActiveMonths", DEFAULT_PARTITION_ACTIVE_MONTHS), _metrics);
+				}
+			}
+			File _binaryF = new File(_dataDir, SnapshotWriter.DATA_BIN_FN);
+			List<TaggedWorkRecord> _workRecords = _partitions == null ? null : _partitions.open();
+			boolean _isMigrated = false;
+			if (_workRecords == null) {
+				long _importStarted = _metrics.start();
+				File _snapshotF = SnapshotWriter.latestSnapshot(_dataDir, _format);
+				if (_binaryF.equals(_snapshotF)) {
+					long _start = System.currentTimeMillis();
+					_workRecords = BinarySnapshot.read(_binaryF);
+					logger.info("loaded " + _workRecords.size() + " workrecords from <" + _binaryF + "> in " + (System.currentTimeMillis() - _start) + " ms.");
+					_metrics.recordImport(_importStarted, _binaryF.length());
+				} else {
+					// data.json, or the seed if there is no snapshot yet
+					_workRecords = importJson();
+					_metrics.recordImport(_importStarted, new File(_dataDir, SnapshotWriter.DATA_FN).length());
+				}
+				if (_snapshotF != null && !SnapshotConverter.formatOf(_snapshotF).equals(_format)) {
+					// snapshotFormat was switched: the snapshot of the other format contains the latest changes;
+					// it is converted right away, so that the snapshot of the configured format is the latest one again
+					logger.warning("<" + _snapshotF + "> was written after the snapshot in snapshotFormat <" + _format 
+							+ ">; its workrecords are loaded and converted.");
+					_isMigrated = true;
+				}
+				if (_partitions != null) {
+					// the first start with snapshotPartitioning: split the single snapshot (or the seed) into partitions
+					_partitions.migrate(_workRecords);
+					_isMigrated = true;
+				}
+			}
+			String _durability = context.getInitParameter("snapshotDurability");
+			logger.info("init parameter <snapshotDurability>=<" + _durability + ">");
+			if (_isJournal || _durability == null || _durability.isEmpty()) {
+				_durability = SnapshotWriter.DURABILITY_SYNC;
+			} else if (!_durability.equalsIgnoreCase(SnapshotWriter.DURABILITY_SYNC) 
+					&& !_durability.equalsIgnoreCase(SnapshotWriter.DURABILITY_GROUP_COMMIT)
+					&& !_durability.equalsIgnoreCase(SnapshotWriter.DURABILITY_ASYNC)) {
+				logger.warning("init parameter <snapshotDurability> is invalid; using <" + SnapshotWriter.DURABILITY_SYNC + ">");
+				_durability = SnapshotWriter.DURABILITY_SYNC;
+			}
+			snapshotWriter = new SnapshotWriter(
+				_partitions != null ? _partitions.getDirectory()
+					: _format.equals(SnapshotWriter.FORMAT_BINARY) ? _binaryF : new File(_dataDir, SnapshotWriter.DATA_FN),
+				_store,
+				_partitions,
+				_metrics,
+				_format,
+				_durability.toLowerCase(Locale.ROOT),
+				parseLong(context, "snapshotFlushInterval", DEFAULT_SNAPSHOT_FLUSH_INTERVAL),
+				(int) parseLong(context, "snapshotFlushThreshold", DEFAULT_SNAPSHOT_FLUSH_THRESHOLD));
+			if (_isJournal) {
+				journal = new WorkRecordJournal(new File(_dataDir, WorkRecordJournal.JOURNAL_FN));
+				_workRecords = journal.replay(_workRecords);
+				startCompactor(
+					parseLong(context, "journalCompactionInterval", DEFAULT_COMPACTION_INTERVAL),
+					(int) parseLong(context, "journalCompactionThreshold", DEFAULT_COMPACTION_THRESHOLD));
+			}
+			_store.load(_workRecords);
+			logger.info("loaded " + _store.size() + " workrecords into the <" + _store.getEngine().getName() + "> storage engine, ~" 
+					+ _store.estimateBytesPerRecord() + " bytes per workrecord.");
+			if (_isMigrated && isPersistent) {
+				snapshotWriter.writeSnapshot();
 			}
-			tagRefIndex = new HashMap<String, TagRefModel>();
 			String _buf = context.getInitParameter("isResourceDerived");
-			logger = Logger.getLogger(FileServiceProvider.class.getName());
 			logger.info("init parameter <isResourceDerived> (_buf)=<" + _buf + ">");
 			isResourceDerived = Boolean.parseBoolean(context.getInitParameter("isResourceDerived"));
+			int _cacheSize = (int) parseLong(context, "referenceCacheSize", DEFAULT_REFERENCE_CACHE_SIZE);
+			logger.info("referenceCacheSize=<" + _cacheSize + ">");
+			// the lookups are timed below the cache, i.e. the metrics show the latency of the other services
+			ReferenceResolver _resolver = _metrics.isEnabled() ? new ReferenceResolver.Timed(new ReferenceResolver(), _metrics) : new ReferenceResolver();
+			if (_cacheSize > 0) {
+				_resolver = new CachingReferenceResolver(_resolver, _cacheSize, 
+					parseLong(context, "referenceCacheTtl", DEFAULT_REFERENCE_CACHE_TTL) * 1000L);
+			}
+			referenceResolver = _resolver;
+			_buf = context.getInitParameter("rederiveTitlesOnRename");
+			logger.info("init parameter <rederiveTitlesOnRename>=<" + _buf + ">");
+			if (Boolean.parseBoolean(_buf)) {
+				rederiver = Executors.newSingleThreadExecutor(daemonThreadFactory("workrecords-title-rederiver"));
+			}
+			changeFeed = new WorkRecordChangeFeed(
+				(int) parseLong(context, "changeFeedCapacity", DEFAULT_CHANGE_FEED_CAPACITY));
+			snapshotWriter.start();
+			_metrics.attach(_store, snapshotWriter, journal, _partitions, _resolver);
+			metrics.unregister();
+			_metrics.register();
+			metrics = _metrics;
+			partitions = _partitions;
+			store = _store;
 		}
 		logger.info("isResourceDerived=<" + isResourceDerived + ">") ;
 	}
 
-	/* (non-Javadoc)
+	/**
+	 * Stop the background threads and write all pending changes, e.g. when the web application is stopped
+	 * (see {@link WorkRecordsContextListener}). The shutdown hook of the snapshot writer is removed, so that a stopped
+	 * web application is not kept in memory until the JVM exits. The next instance loads the persisted workrecords again.
+	 */
+	public static synchronized void shutdown() {
+		AsyncFileServiceProvider.shutdown();
+		stop(compactor);
+		compactor = null;
+		stop(rederiver);
+		rederiver = null;
+		if (snapshotWriter != null) {
+			try {
+				snapshotWriter.flush();
+			}
+			catch (RuntimeException _ex) {
+				logger.severe("pending workrecord changes are lost: " + _ex.getMessage());
+			}
+			finally {
+				snapshotWriter.close();
+				snapshotWriter = null;
+			}
+		}
+		if (journal != null) {
+			try {
+				journal.close();
+			}
+			catch (IOException _ex) {
+				logger.severe("workrecord journal can not be closed: " + _ex.getMessage());
+			}
+			journal = null;
+		}
+		partitions = null;
+		metrics.unregister();
+		store = null;
+	}
+
+	/**
+	 * Stop a background executor; a running task (e.g. a compaction) is completed.
+	 * @param executor the executor (may be null)
+	 */
+	private static void stop(
+			ExecutorService executor) {
+		if (executor != null) {
+			executor.shutdown();
+			try {
+				if (!executor.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS)) {
+					executor.shutdownNow();
+				}
+			}
+			catch (InterruptedException _ex) {
+				executor.shutdownNow();
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Read a numeric init parameter.
+	 * @param context the servlet context (for config)
+	 * @param name the name of the init parameter
+	 * @param defaultValue the value to use if the parameter is not set or invalid
+	 * @return the value of the init parameter
+	 */
+	static long parseLong(
+			ServletContext context,
+			String name,
+			long defaultValue) {
+		String _buf = context.getInitParameter(name);
+		logger.info("init parameter <" + name + ">=<" + _buf + ">");
+		if (_buf == null || _buf.isEmpty()) {
+			return defaultValue;
+		}
+		try {
+			return Long.parseLong(_buf.trim());
+		}
+		catch (NumberFormatException _ex) {
+			logger.warning("init parameter <" + name + "> is not a number; using default <" + defaultValue + ">");
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * @param name the name of the thread
+	 * @return a factory for the daemon thread of a background executor
+	 */
+	private static ThreadFactory daemonThreadFactory(
+			final String name) {
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread _thread = new Thread(runnable, name);
+				_thread.setDaemon(true);
+				return _thread;
+			}
+		};
+	}
+
+	/**
+	 * Start the background thread that periodically folds the journal into the snapshot.
+	 * @param interval the number of seconds between two checks
+	 * @param threshold the minimal number of journal entries that triggers a compaction
+	 */
+	private void startCompactor(
+			long interval,
+			final int threshold) {
+		compactor = Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("workrecords-journal-compactor"));
+		compactor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					if (isPersistent && journal.size() >= threshold) {
+						compactJournal();
+					}
+				}
+				catch (RuntimeException _ex) {
+					logger.warning("journal compaction failed: " + _ex.getMessage());
+				}
+			}
+		}, interval, interval, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Write a full snapshot of all workrecords and truncate the journal.
+	 * The journal is rotated at the point where the snapshot is taken; the snapshot is written
+	 * without blocking the writers.
+	 */
+	protected void compactJournal() {
+		List<TaggedWorkRecord> _snapshot = store.snapshot(new Runnable() {
+			@Override
+			public void run() {
+				journal.rotate();
+			}
+		});
+		snapshotWriter.write(_snapshot);
+		journal.commitCompaction();
+	}
+
+	/**
+	 * Journal the current state of a workrecord (including its tagRefs), mark its partitions dirty (snapshotPartitioning)
+	 * and publish it on the change feed.
+	 * Must be called while holding the lock of the workrecord, so that the journal order and the sequence numbers
+	 * match the order of the changes.
+	 * @param taggedWR the workrecord that was created or changed
+	 */
+	private void persistWorkRecord(
+			TaggedWorkRecord taggedWR) {
+		persistWorkRecord(taggedWR, true);
+	}
+
+	/**
+	 * Journal the current state of a workrecord, optionally without flushing the journal (for batches; see {@link #flushJournal()}).
+	 * Must be called while holding the lock of the workrecord.
+	 * @param taggedWR the workrecord that was created or changed
+	 * @param flush false if the caller flushes the journal later
+	 */
+	private void persistWorkRecord(
+			TaggedWorkRecord taggedWR,
+			boolean flush) {
+		if (isPersistent && journal != null) {
+			journal.appendPut(taggedWR, flush);
+		}
+		if (partitions != null) {
+			partitions.put(taggedWR.getModel());
+		}
+		changeFeed.append(new WorkRecordChange(WorkRecordChange.OP_PUT, taggedWR.getModel().getId(), null, 
+				taggedWR.getModel(), taggedWR.getTagRefs()));
+	}
+
+	/**
+	 * Journal the current state of a workrecord after one of its tagRefs was removed and publish a tombstone 
+	 * for the tagRef on the change feed.
+	 * Must be called while holding the lock of the workrecord.
+	 * @param taggedWR the workrecord without the tagRef
+	 * @param tagRefId the id of the removed tagRef
+	 */
+	private void persistTagRefRemoval(
+			TaggedWorkRecord taggedWR,
+			String tagRefId) {
+		if (isPersistent && journal != null) {
+			journal.appendPut(taggedWR, true);
+		}
+		if (partitions != null) {
+			partitions.put(taggedWR.getModel());
+		}
+		changeFeed.append(new WorkRecordChange(WorkRecordChange.OP_DELETE_TAGREF, taggedWR.getModel().getId(), tagRefId, 
+				null, null));
+	}
+
+	/**
+	 * Journal the removal of a workrecord, mark its partition dirty (snapshotPartitioning) and publish a tombstone 
+	 * on the change feed.
+	 * Must be called while holding the lock of the workrecord.
+	 * @param id the id of the removed workrecord
+	 */
+	private void persistRemoval(
+			String id) {
+		persistRemoval(id, true);
+	}
+
+	/**
+	 * Journal the removal of a workrecord, optionally without flushing the journal (for batches; see {@link #flushJournal()}).
+	 * Must be called while holding the lock of the workrecord.
+	 * @param id the id of the removed workrecord
+	 * @param flush false if the caller flushes the journal later
+	 */
+	private void persistRemoval(
+			String id,
+			boolean flush) {
+		if (isPersistent && journal != null) {
+			journal.appendDelete(id, flush);
+		}
+		if (partitions != null) {
+			partitions.remove(id);
+		}
+		changeFeed.append(new WorkRecordChange(WorkRecordChange.OP_DELETE, id, null, null, null));
+	}
+
+	/**
+	 * Flush the journal entries written without flushing.
+	 */
+	private void flushJournal() {
+		if (isPersistent && journal != null) {
+			journal.flush();
+		}
+	}
+
+	/**
+	 * In snapshot mode, rewrite the full snapshot after a change (immediately or coalesced with other changes, 
+	 * depending on the durability; see {@link SnapshotWriter}).
+	 * Must be called after the lock of the changed workrecord was released.
+	 */
+	private void exportSnapshot() {
+		if (isPersistent && journal == null) {
+			snapshotWriter.changed();
+		}
+	}
+
+	/**
+	 * With snapshotPartitioning, load the partitions that may contain candidates of a query.
+	 * @param plan the indexable part of the query
+	 * @return the plan
+	 */
+	private static WorkRecordQueryPlan loadPartitions(
+			WorkRecordQueryPlan plan) {
+		if (partitions != null) {
+			partitions.loadFor(plan);
+		}
+		return plan;
+	}
+
+	/**
+	 * With snapshotPartitioning, load the partition of a workrecord (if it is known and not loaded yet).
+	 * @param id the id of the workrecord
+	 */
+	private static void loadPartition(
+			String id) {
+		if (partitions != null) {
+			partitions.loadFor(id);
+		}
+	}
+
+	/**
+	 * With snapshotPartitioning, load all partitions (e.g. before a scan that is not restricted by a query plan).
+	 */
+	private static void loadAllPartitions() {
+		if (partitions != null) {
+			partitions.loadAll();
+		}
+	}
+
+	/**
+	 * List the workrecords that match a query.
+	 * With queryType {@link #QUERY_TYPE_FULLTEXT} or {@link #QUERY_TYPE_FULLTEXT_BY_START_AT}, the query is a search text
+	 * that is looked up in the full-text index of comment, projectTitle and resourceName (see {@link WorkRecordTextIndex}):
+	 * every word of the text must match the start of a word in one of these fields.
 	 * @see org.opentdc.workrecords.ServiceProvider#listWorkRecords(java.lang.String, java.lang.String, int, int)
 	 */
 	@Override
@@ -97,20 +530,302 @@ public class FileServiceProvider extends AbstractFileServiceProvider<TaggedWorkR
 		int position,
 		int size) 
 	{
-		List<TaggedWorkRecord> _list = new ArrayList<TaggedWorkRecord>(index.values());
-		Collections.sort(_list, TaggedWorkRecord.TaggedWorkRecordComparator);
+		long _started = metrics.start();
+		try {
+			ArrayList<WorkRecordModel> _selection = new ArrayList<WorkRecordModel>();
+			if (isFullText(queryType)) {
+				List<TaggedWorkRecord> _matches = search(query, queryType, (int) Math.min(Integer.MAX_VALUE, (long) position + size));
+				for (int i = position; i < _matches.size(); i++) {
+					_selection.add(_matches.get(i).getModel());
+				}
+			} else {
+				// position and size count matching workrecords
+				select(store.select(loadPartitions(WorkRecordQueryPlan.parse(query))), query, position, size, _selection);
+			}
+			logger.info("list(<" + query + ">, <" + queryType + 
+					">, <" + position + ">, <" + size + ">) -> " + _selection.size() + " workrecords.");
+			return _selection;
+		}
+		finally {
+			metrics.recordOperation(WorkRecordMetrics.OP_LIST, _started);
+		}
+	}
+
+	/**
+	 * List the workrecords that match a query page by page.
+	 * Instead of a position, the cursor returned with the previous page is passed,
+	 * so that deep pages do not need to rescan all preceding workrecords.
+	 * If the last workrecord of the previous page was changed in the meantime, the next page continues from its new position.
+	 * @param query the query
+	 * @param queryType the type of the query
+	 * @param cursor the nextCursor of the previous page, or null for the first page
+	 * @param size the maximal number of workrecords on the page
+	 * @return the page; its nextCursor is null if there are no more workrecords
+	 * @throws ValidationException if the cursor is invalid or the workrecord it refers to was deleted
+	 */
+	public WorkRecordPage listWorkRecords(
+		String query,
+		String queryType,
+		String cursor,
+		int size)
+		throws ValidationException
+	{
+		long _started = metrics.start();
+		try {
+			ArrayList<WorkRecordModel> _selection = new ArrayList<WorkRecordModel>();
+			String _nextCursor = null;
+			if (isFullText(queryType)) {
+				// the order by relevance is not kept by any index; the matches are searched again and only
+				// the page after the last workrecord of the previous page is materialized
+				String _last = (cursor != null && !cursor.isEmpty()) ? readCursor(cursor) : null;
+				List<TaggedWorkRecord> _matches = search(query, queryType, _last, (int) Math.min(Integer.MAX_VALUE, (long) size + 1));
+				if (_matches == null) {
+					throw new ValidationException("cursor <" + cursor + "> refers to a workrecord that no longer matches; restart from the first page.");
+				}
+				for (int i = 0; i < _matches.size() && i < size; i++) {
+					_selection.add(_matches.get(i).getModel());
+				}
+				if (_matches.size() > size && size > 0) {
+					_nextCursor = writeCursor(_selection.get(size - 1));
+				}
+			} else {
+				WorkRecordQueryPlan _plan = loadPartitions(WorkRecordQueryPlan.parse(query));
+				Iterable<TaggedWorkRecord> _candidates;
+				if (cursor != null && !cursor.isEmpty()) {
+					_candidates = store.select(_plan, readCursor(cursor));
+					if (_candidates == null) {
+						throw new ValidationException("cursor <" + cursor + "> refers to a deleted workrecord; restart from the first page.");
+					}
+				} else {
+					_candidates = store.select(_plan);
+				}
+				if (select(_candidates, query, 0, size, _selection) == size && size > 0) {
+					_nextCursor = writeCursor(_selection.get(size - 1));
+				}
+			}
+			logger.info("list(<" + query + ">, <" + queryType + 
+					">, <" + cursor + ">, <" + size + ">) -> " + _selection.size() + " workrecords.");
+			return new WorkRecordPage(_selection, _nextCursor);
+		}
+		finally {
+			metrics.recordOperation(WorkRecordMetrics.OP_LIST_PAGE, _started);
+		}
+	}
+
+	/**
+	 * List the workrecords that contain a tagRef to a tag and match a query.
+	 * The candidates are taken from the reverse tag index, so the cost depends on the number of tagged workrecords only.
+	 * @param tagId the id of the tag
+	 * @param query the query
+	 * @param queryType the type of the query
+	 * @param position the number of matches to skip
+	 * @param size the maximal number of matches to return
+	 * @return the matching workrecords in the order of listWorkRecords
+	 */
+	public ArrayList<WorkRecordModel> listWorkRecordsByTag(
+		String tagId,
+		String query,
+		String queryType,
+		int position,
+		int size)
+	{
+		long _started = metrics.start();
+		try {
+			ArrayList<WorkRecordModel> _selection = new ArrayList<WorkRecordModel>();
+			loadAllPartitions();
+			select(store.selectByTag(tagId), query, position, size, _selection);
+			logger.info("listWorkRecordsByTag(<" + tagId + ">, <" + query + ">, <" + queryType + 
+					">, <" + position + ">, <" + size + ">) -> " + _selection.size() + " workrecords.");
+			return _selection;
+		}
+		finally {
+			metrics.recordOperation(WorkRecordMetrics.OP_LIST_BY_TAG, _started);
+		}
+	}
+
+	/**
+	 * Sum up the durations of the workrecords that match a query, grouped by resource, project, company, day, week 
+	 * or month and/or by the billable flag (see {@link WorkRecordRollups}).
+	 * Without a query, the totals are taken from the rollups maintained on every change; with a query, the candidates
+	 * selected by the indexes are evaluated in one pass.
+	 * @param query the query (may be null)
+	 * @param queryType the type of the query
+	 * @param groupBy the grouping, e.g. "project", "month,billable" or null for the grand total
+	 * @return the totals ordered by key and billable flag
+	 * @throws ValidationException if the grouping is invalid
+	 */
+	public List<WorkRecordTotal> aggregateWorkRecords(
+		String query,
+		String queryType,
+		String groupBy)
+		throws ValidationException
+	{
+		long _started = metrics.start();
+		try {
+			WorkRecordRollups.Grouping _grouping = WorkRecordRollups.Grouping.parse(groupBy);
+			List<WorkRecordTotal> _totals;
+			if (query == null || query.trim().isEmpty()) {
+				loadAllPartitions();
+				_totals = store.getRollups().totals(_grouping);
+			} else {
+				WorkRecordRollups.Totals _scan = store.getRollups().newTotals(_grouping);
+				WorkRecordQueryHandler _queryHandler = new WorkRecordQueryHandler(query);
+				int _scanned = 0;
+				int _matched = 0;
+				for (TaggedWorkRecord _taggedWR : store.select(loadPartitions(WorkRecordQueryPlan.parse(query)))) {
+					_scanned++;
+					if (_queryHandler.evaluate(_taggedWR) == true) {
+						_scan.add(_taggedWR.getModel());
+						_matched++;
+					}
+				}
+				metrics.recordQuery(_scanned, _matched);
+				_totals = _scan.toList();
+			}
+			logger.info("aggregateWorkRecords(<" + query + ">, <" + queryType + ">, <" + groupBy + ">) -> " + _totals.size() + " totals.");
+			return _totals;
+		}
+		finally {
+			metrics.recordOperation(WorkRecordMetrics.OP_AGGREGATE, _started);
+		}
+	}
+
+	/**
+	 * List the changes (puts and tombstones of workrecords and tagRefs) after a sequence number, e.g. to keep
+	 * a client-side copy in sync without listing all workrecords.
+	 * Only the most recent changes are kept (init parameter changeFeedCapacity); if some of the requested changes are
+	 * no longer available (or the sequence number is from before a restart), resync is set and the client must
+	 * reload all workrecords before continuing with the returned lastSequence.
+	 * @param since the lastSequence of the previous call; 0 to get the current lastSequence (resync)
+	 * @param size the maximal number of changes to return
+	 * @return the changes in the order of their sequence numbers
+	 * @throws ValidationException if size is not positive
+	 */
+	public WorkRecordChanges listChanges(
+		long since,
+		int size)
+		throws ValidationException
+	{
+		long _started = metrics.start();
+		try {
+			if (size <= 0) {
+				throw new ValidationException("size <" + size + "> must be positive.");
+			}
+			WorkRecordChanges _changes = changeFeed.since(since, size);
+			logger.info("listChanges(<" + since + ">, <" + size + ">) -> " + _changes.getChanges().size() + " changes, lastSequence="
+					+ _changes.getLastSequence() + (_changes.isResync() ? ", resync." : "."));
+			return _changes;
+		}
+		finally {
+			metrics.recordOperation(WorkRecordMetrics.OP_LIST_CHANGES, _started);
+		}
+	}
+
+	private static boolean isFullText(
+			String queryType) {
+		return QUERY_TYPE_FULLTEXT.equalsIgnoreCase(queryType) || QUERY_TYPE_FULLTEXT_BY_START_AT.equalsIgnoreCase(queryType);
+	}
+
+	/**
+	 * Full-text search (see {@link WorkRecordStore#search(String, boolean, int)}).
+	 * @param text the search text
+	 * @param queryType {@link #QUERY_TYPE_FULLTEXT} or {@link #QUERY_TYPE_FULLTEXT_BY_START_AT}
+	 * @param limit the maximal number of matches to return
+	 * @return the best matches in the order given by the queryType
+	 */
+	private static List<TaggedWorkRecord> search(
+			String text,
+			String queryType,
+			int limit) {
+		return search(text, queryType, null, limit);
+	}
+
+	/**
+	 * Full-text search after a match of a previous page (see {@link WorkRecordStore#search(String, boolean, String, int)}).
+	 * @param text the search text
+	 * @param queryType {@link #QUERY_TYPE_FULLTEXT} or {@link #QUERY_TYPE_FULLTEXT_BY_START_AT}
+	 * @param afterId the id of the last match of the previous page, or null
+	 * @param limit the maximal number of matches to return
+	 * @return the best matches after afterId in the order given by the queryType, or null if afterId no longer matches
+	 */
+	private static List<TaggedWorkRecord> search(
+			String text,
+			String queryType,
+			String afterId,
+			int limit) {
+		loadAllPartitions();
+		List<TaggedWorkRecord> _matches = store.search(text, QUERY_TYPE_FULLTEXT.equalsIgnoreCase(queryType), afterId, limit);
+		if (_matches != null) {
+			metrics.recordQuery(_matches.size(), _matches.size());
+		}
+		return _matches;
+	}
+
+	/**
+	 * Lazily filter and paginate candidates: the candidates are evaluated in order and
+	 * the scan stops as soon as the page is full.
+	 * @param candidates the candidates in the order of listWorkRecords
+	 * @param query the query
+	 * @param position the number of matches to skip
+	 * @param size the maximal number of matches to return
+	 * @param selection the matches are added to this list
+	 * @return the number of matches added
+	 */
+	private static int select(
+			Iterable<TaggedWorkRecord> candidates,
+			String query,
+			int position,
+			int size,
+			List<WorkRecordModel> selection) {
 		WorkRecordQueryHandler _queryHandler = new WorkRecordQueryHandler(query);
-		ArrayList<WorkRecordModel> _selection = new ArrayList<WorkRecordModel>();
-		for (int i = 0; i < _list.size(); i++) {
-			if (i >= position && i < (position + size)) {
-				if (_queryHandler.evaluate(_list.get(i)) == true) {
-					_selection.add(_list.get(i).getModel());
+		int _skipped = 0;
+		int _selected = 0;
+		int _scanned = 0;
+		Iterator<TaggedWorkRecord> _it = candidates.iterator();
+		while (_selected < size && _it.hasNext()) {
+			TaggedWorkRecord _taggedWR = _it.next();
+			_scanned++;
+			if (_queryHandler.evaluate(_taggedWR) == true) {
+				if (_skipped < position) {
+					_skipped++;
+				} else {
+					selection.add(_taggedWR.getModel());
+					_selected++;
 				}
-			}			
+			}
+		}
+		metrics.recordQuery(_scanned, _skipped + _selected);
+		return _selected;
+	}
+
+	/**
+	 * @param last the last workrecord of a page
+	 * @return the cursor of the next page (URL-safe base64, without padding)
+	 */
+	private static String writeCursor(
+			WorkRecordModel last) {
+		return Base64.getUrlEncoder().withoutPadding().encodeToString((CURSOR_VERSION + last.getId()).getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @param cursor a cursor returned by {@link #writeCursor(WorkRecordModel)}
+	 * @return the id of the last workrecord of the previous page
+	 * @throws ValidationException if the cursor is invalid
+	 */
+	private static String readCursor(
+			String cursor)
+			throws ValidationException {
+		String _buf;
+		try {
+			_buf = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
 		}
-		logger.info("list(<" + query + ">, <" + queryType + 
-				">, <" + position + ">, <" + size + ">) -> " + _selection.size() + " workrecords.");
-		return _selection;
+		catch (IllegalArgumentException _ex) {
+			throw new ValidationException("cursor <" + cursor + "> is invalid.");
+		}
+		if (!_buf.startsWith(CURSOR_VERSION)) {
+			throw new ValidationException("cursor <" + cursor + "> is invalid.");
+		}
+		return _buf.substring(CURSOR_VERSION.length());
 	}
 
 	/* (non-Javadoc)
@@ -122,12 +837,51 @@ public class FileServiceProvider extends AbstractFileServiceProvider<TaggedWorkR
 			WorkRecordModel workrecord) 
 		throws DuplicateException, ValidationException 
 	{
-		logger.info("createWorkRecord(" + PrettyPrinter.prettyPrintAsJSON(workrecord) + ")");
+		long _started = metrics.start();
+		try {
+			logger.log(Level.FINE, "createWorkRecord({0})", new LazyJson(workrecord));
+			TaggedWorkRecord _taggedWR = newTaggedWorkRecord(request, workrecord, referenceResolver);
+			String _id = workrecord.getId();
+			store.lock(_id);
+			try {
+				store.put(_taggedWR);
+				persistWorkRecord(_taggedWR);
+			}
+			finally {
+				store.unlock(_id);
+			}
+			exportSnapshot();
+		
+			logger.info("createWorkRecord() -> <" + _id + ">");
+			logger.log(Level.FINE, "createWorkRecord() -> {0}", new LazyJson(workrecord));
+			return workrecord;
+		}
+		finally {
+			metrics.recordOperation(WorkRecordMetrics.OP_CREATE, _started);
+		}
+	}
+
+	/**
+	 * Validate a new workrecord, derive its titles and build it including its TagRefs; the workrecord is not published yet.
+	 * @param request the servlet request (for the principal)
+	 * @param workrecord the new workrecord
+	 * @param resolver looks up the company, project and resource
+	 * @return the new TaggedWorkRecord
+	 * @throws DuplicateException if a workrecord with the same id exists already
+	 * @throws ValidationException if the workrecord is not valid
+	 */
+	private TaggedWorkRecord newTaggedWorkRecord(
+			HttpServletRequest request,
+			WorkRecordModel workrecord,
+			ReferenceResolver resolver)
+		throws DuplicateException, ValidationException 
+	{
 		String _id = workrecord.getId();
 		if (_id == null || _id == "") {
 			_id = UUID.randomUUID().toString();
 		} else {
-			if (index.get(_id) != null) {
+			loadPartition(_id);
+			if (store.get(_id) != null) {
 				// object with same ID exists already
 				throw new DuplicateException("workrecord <" + _id + 
 						"> exists already.");				
@@ -147,7 +901,7 @@ public class FileServiceProvider extends AbstractFileServiceProvider<TaggedWorkR
 					">: companyTitle is a derived field and will be overwritten.");
 		}
 		try {
-			CompanyModel _companyModel = org.opentdc.wtt.file.FileServiceProvider.getCompany(workrecord.getCompanyId());
+			CompanyModel _companyModel = resolver.getCompany(workrecord.getCompanyId());
 			workrecord.setCompanyTitle(_companyModel.getTitle());			
 		}
 		catch (NotFoundException _ex) {
@@ -164,7 +918,7 @@ public class FileServiceProvider extends AbstractFileServiceProvider<TaggedWorkR
 					">: projectTitle is a derived field and will be overwritten.");
 		}
 		try {
-			ProjectModel _projectModel = org.opentdc.wtt.file.FileServiceProvider.getProject(workrecord.getProjectId());
+			ProjectModel _projectModel = resolver.getProject(workrecord.getProjectId());
 			workrecord.setProjectTitle(_projectModel.getTitle());
 		}
 		catch (NotFoundException _ex) {
@@ -182,7 +936,7 @@ public class FileServiceProvider extends AbstractFileServiceProvider<TaggedWorkR
 					">: resourceName is a derived field and will be overwritten.");
 			}
 			try {
-				ResourceModel _resourceModel = org.opentdc.resources.file.FileServiceProvider.getResourceModel(workrecord.getResourceId());
+				ResourceModel _resourceModel = resolver.getResourceModel(workrecord.getResourceId());
 				workrecord.setResourceName(_resourceModel.getName());
 			}
 			catch (NotFoundException _ex) {
@@ -208,16 +962,9 @@ public class FileServiceProvider extends AbstractFileServiceProvider<TaggedWorkR
 		workrecord.setModifiedBy(ServiceUtil.getPrincipal(request));
 		TaggedWorkRecord _taggedWR = new TaggedWorkRecord();
 		_taggedWR.setModel(workrecord);
-		index.put(_id, _taggedWR);
-		
-		// generate TagRefModel composites
-		addTags(request, _id, workrecord.getTagIdList());
-		
-		logger.info("createWorkRecord() -> " + PrettyPrinter.prettyPrintAsJSON(workrecord));
-		if (isPersistent) {
-			exportJson(index.values());
-		}
-		return workrecord;
+		// generate TagRefModel composites; all of them are validated before the workrecord is published
+		addTagRefs(request, _taggedWR, workrecord.getTagIdList());
+		return _taggedWR;
 	}
 	
 	/* (non-Javadoc)
@@ -227,9 +974,17 @@ public class FileServiceProvider extends AbstractFileServiceProvider<TaggedWorkR
 	public WorkRecordModel readWorkRecord(
 			String id) 
 			throws NotFoundException {
-		WorkRecordModel _workrecord = readTaggedWorkRecord(id).getModel();
-		logger.info("readWorkRecord(" + id + ") -> " + _workrecord);
-		return _workrecord;
+		long _started = metrics.start();
+		try {
+			WorkRecordModel _workrecord = readTaggedWorkRecord(id).getModel();
+			if (logger.isLoggable(Level.FINE)) {
+				logger.log(Level.FINE, "readWorkRecord({0}) -> {1}", new Object[] { id, new LazyJson(_workrecord) });
+			}
+			return _workrecord;
+		}
+		finally {
+			metrics.recordOperation(WorkRecordMetrics.OP_READ, _started);
+		}
 	}
 	
 	/**
@@ -241,11 +996,15 @@ public class FileServiceProvider extends AbstractFileServiceProvider<TaggedWorkR
 	private static TaggedWorkRecord readTaggedWorkRecord(
 			String id)
 			throws NotFoundException {
-		TaggedWorkRecord _taggedWR = index.get(id);
+		loadPartition(id);
+		TaggedWorkRecord _taggedWR = store.get(id);
 		if (_taggedWR == null) {
 			throw new NotFoundException("no workrecord with id <" + id + "> was found.");			
 		}
-		logger.info("readTaggedWorkRecord(" + id + ") -> " + PrettyPrinter.prettyPrintAsJSON(_taggedWR));
+		// hot path (every read, update, delete and tagRef operation): no allocation unless FINE is enabled
+		if (logger.isLoggable(Level.FINE)) {
+			logger.log(Level.FINE, "readTaggedWorkRecord({0}) -> {1}", new Object[] { id, new LazyJson(_taggedWR) });
+		}
 		return _taggedWR;
 	}
 	
@@ -261,6 +1020,24 @@ public class FileServiceProvider extends AbstractFileServiceProvider<TaggedWorkR
 		return readTaggedWorkRecord(id).getModel();
 	}
 
+	/**
+	 * The metrics of this service (also registered as the MXBean <code>org.opentdc.workrecords:type=FileServiceProvider,name=metrics</code>),
+	 * e.g. for an exporter that polls them; empty counters if the init parameter metricsEnabled is false.
+	 * @return the metrics by name (see {@link WorkRecordMetrics#snapshot()})
+	 */
+	public Map<String, Long> getMetrics() {
+		return metrics.snapshot();
+	}
+
+	/**
+	 * Estimate the heap used per workrecord by the storage engine (init parameter storageEngine: object or columnar).
+	 * This iterates over all workrecords.
+	 * @return the estimated number of bytes per workrecord
+	 */
+	public long getBytesPerRecord() {
+		return store.estimateBytesPerRecord();
+	}
+
 
 	/* (non-Javadoc)
 	 * @see org.opentdc.workrecords.ServiceProvider#updateWorkRecord(java.lang.String, org.opentdc.workrecords.WorkRecordModel)
@@ -272,7 +1049,151 @@ public class FileServiceProvider extends AbstractFileServiceProvider<TaggedWorkR
 		WorkRecordModel workrecord) 
 				throws NotFoundException, ValidationException
 	{
-		TaggedWorkRecord _taggedWR = readTaggedWorkRecord(id);
+		return updateWorkRecord(request, id, workrecord, null).getWorkRecord();
+	}
+
+	/**
+	 * Read a workrecord together with the ETag of its current version.
+	 * @param id the id of the workrecord
+	 * @return the workrecord and its ETag
+	 * @throws NotFoundException if no workrecord with this id was found
+	 */
+	public VersionedWorkRecord readVersionedWorkRecord(
+		String id)
+		throws NotFoundException
+	{
+		long _started = metrics.start();
+		try {
+			StoredWorkRecord _stored = readStoredWorkRecord(id);
+			return new VersionedWorkRecord(_stored.materialize().getModel(), etag(_stored.getVersion()));
+		}
+		finally {
+			metrics.recordOperation(WorkRecordMetrics.OP_READ, _started);
+		}
+	}
+
+	/**
+	 * Update a workrecord with optimistic concurrency control.
+	 * The new values are validated and the references are resolved on a copy without holding the lock of the workrecord;
+	 * the lock is only held to publish the copy, provided that the workrecord is still of the version the copy was made from.
+	 * A conditional update (ifMatch) fails with a VersionConflictException if the workrecord was changed since the
+	 * client read it. An unconditional update is retried on top of the newer version; after MAX_OPTIMISTIC_ATTEMPTS,
+	 * it holds the lock from reading to publishing, so that it can not starve.
+	 * @param request the request (for the principal)
+	 * @param id the id of the workrecord
+	 * @param workrecord the new values
+	 * @param ifMatch the ETag the changes are based on (see {@link #readVersionedWorkRecord(String)}), with or without quotes; 
+	 * 	null, empty or "*" to update unconditionally
+	 * @return the updated workrecord and its new ETag
+	 * @throws NotFoundException if no workrecord with this id was found
+	 * @throws ValidationException if the new values are not valid
+	 * @throws VersionConflictException if the workrecord is not of the version given by ifMatch
+	 */
+	public VersionedWorkRecord updateWorkRecord(
+		HttpServletRequest request,
+		String id,
+		WorkRecordModel workrecord,
+		String ifMatch) 
+				throws NotFoundException, ValidationException, VersionConflictException
+	{
+		long _started = metrics.start();
+		try {
+			String _ifMatch = ifMatch == null ? null : ifMatch.trim().replaceAll("^\"|\"$", "");
+			boolean _isConditional = _ifMatch != null && !_ifMatch.isEmpty() && !_ifMatch.equals("*");
+			for (int _attempt = 1; ; _attempt++) {
+				boolean _isPessimistic = !_isConditional && _attempt > MAX_OPTIMISTIC_ATTEMPTS;
+				if (_isPessimistic) {
+					store.lock(id);
+				}
+				try {
+					StoredWorkRecord _stored = readStoredWorkRecord(id);
+					if (_isConditional && !_ifMatch.equals(etag(_stored.getVersion()))) {
+						throw new VersionConflictException("workrecord <" + id + "> was changed; its current ETag is <" 
+								+ etag(_stored.getVersion()) + ">, not <" + _ifMatch + ">.");
+					}
+					// the published workrecord is never modified in place; update a copy and publish it
+					TaggedWorkRecord _taggedWR = _stored.materialize();
+					TaggedWorkRecord _updatedWR = WorkRecordStore.copyOf(_taggedWR);
+					WorkRecordModel _model = updateTaggedWorkRecord(request, id, _updatedWR, workrecord, referenceResolver);
+					long _version;
+					store.lock(id);
+					try {
+						_version = store.replace(_taggedWR, _updatedWR, _stored.getVersion());
+						if (_version != WorkRecordStore.NO_VERSION) {
+							persistWorkRecord(_updatedWR);
+						}
+					}
+					finally {
+						store.unlock(id);
+					}
+					if (_version != WorkRecordStore.NO_VERSION) {
+						logger.info("updateWorkRecord(" + id + ") -> OK" + (_attempt > 1 ? " after " + _attempt + " attempts" : ""));
+						logger.log(Level.FINE, "updateWorkRecord({0}) -> {1}", new Object[] { id, new LazyJson(_model) });
+						exportSnapshot();
+						return new VersionedWorkRecord(_model, etag(_version));
+					}
+					if (_isConditional) {
+						throw new VersionConflictException("workrecord <" + id + "> was changed concurrently; read it again.");
+					}
+				}
+				finally {
+					if (_isPessimistic) {
+						store.unlock(id);
+					}
+				}
+			}
+		}
+		finally {
+			metrics.recordOperation(WorkRecordMetrics.OP_UPDATE, _started);
+		}
+	}
+
+	/**
+	 * Retrieve the published state of a workrecord together with its version.
+	 * @param id the id of the workrecord
+	 * @return the stored workrecord
+	 * @throws NotFoundException if no workrecord with this id was found
+	 */
+	private static StoredWorkRecord readStoredWorkRecord(
+			String id)
+			throws NotFoundException {
+		loadPartition(id);
+		StoredWorkRecord _stored = store.getStored(id);
+		if (_stored == null) {
+			throw new NotFoundException("no workrecord with id <" + id + "> was found.");			
+		}
+		return _stored;
+	}
+
+	/**
+	 * @param version the version of a workrecord
+	 * @return the ETag of the version
+	 */
+	private static String etag(
+			long version) {
+		return Long.toString(version, Character.MAX_RADIX);
+	}
+
+	/**
+	 * Apply the changes of an update to a private copy of a TaggedWorkRecord.
+	 * @param request the servlet request (for the principal)
+	 * @param id the id of the workrecord
+	 * @param taggedWR the workrecord to update
+	 * @param workrecord the new values
+	 * @param resolver looks up the company, project and resource
+	 * @return the updated workrecord
+	 * @throws NotFoundException if the workrecord has no model
+	 * @throws ValidationException if the new values are not valid
+	 */
+	private WorkRecordModel updateTaggedWorkRecord(
+		HttpServletRequest request,
+		String id,
+		TaggedWorkRecord taggedWR,
+		WorkRecordModel workrecord,
+		ReferenceResolver resolver) 
+				throws NotFoundException, ValidationException
+	{
+		TaggedWorkRecord _taggedWR = taggedWR;
 		WorkRecordModel _model = _taggedWR.getModel();		
 		if(_model == null) {
 			throw new NotFoundException("workrecord <" + id + "> was not found.");
@@ -295,7 +1216,7 @@ public class FileServiceProvider extends AbstractFileServiceProvider<TaggedWorkR
 					workrecord.getCompanyTitle() + ">, because it is a derived attribute and can not be changed.");
 		}
 		try {
-			CompanyModel _companyModel = org.opentdc.wtt.file.FileServiceProvider.getCompany(workrecord.getCompanyId());
+			CompanyModel _companyModel = resolver.getCompany(workrecord.getCompanyId());
 			_model.setCompanyTitle(_companyModel.getTitle());			
 		}
 		catch (NotFoundException _ex) {
@@ -313,7 +1234,7 @@ public class FileServiceProvider extends AbstractFileServiceProvider<TaggedWorkR
 					workrecord.getProjectTitle() + ">, because it is a derived attribute and can not be changed.");
 		}
 		try {
-			ProjectModel _projectModel = org.opentdc.wtt.file.FileServiceProvider.getProject(workrecord.getProjectId());
+			ProjectModel _projectModel = resolver.getProject(workrecord.getProjectId());
 			_model.setProjectTitle(_projectModel.getTitle());
 		}
 		catch (NotFoundException _ex) {
@@ -332,7 +1253,7 @@ public class FileServiceProvider extends AbstractFileServiceProvider<TaggedWorkR
 						workrecord.getResourceName() + ">, because it is a derived attribute and can not be changed.");
 			}
 			try {
-				ResourceModel _resourceModel = org.opentdc.resources.file.FileServiceProvider.getResourceModel(workrecord.getResourceId());
+				ResourceModel _resourceModel = resolver.getResourceModel(workrecord.getResourceId());
 				_model.setResourceName(_resourceModel.getName());
 			}
 			catch (NotFoundException _ex) {
@@ -356,33 +1277,294 @@ public class FileServiceProvider extends AbstractFileServiceProvider<TaggedWorkR
 		_model.setModifiedAt(new Date());
 		_model.setModifiedBy(ServiceUtil.getPrincipal(request));
 		_taggedWR.setModel(_model);
-		index.put(id, _taggedWR);
-		logger.info("updateWorkRecord(" + id + ") -> " + PrettyPrinter.prettyPrintAsJSON(_model));
-		if (isPersistent) {
-			exportJson(index.values());
-		}
 		return _model;
 	}
 
+	/**
+	 * Create, update and delete many workrecords in one batch.
+	 * The operations are read one by one from a JSON array of {@link WorkRecordBulkOperation}s and applied in this order.
+	 * Each operation succeeds or fails on its own; its {@link WorkRecordBulkResult} is written to the output
+	 * (a JSON array) as soon as it is applied. References to companies, projects and resources are looked up
+	 * only once per batch, and all changes are persisted with a single flush at the end of the batch,
+	 * also if the batch is aborted. If this final flush fails, the output array is not terminated.
+	 * An element that can not be parsed as an operation fails like an invalid operation; if the element is not even
+	 * well-formed JSON, the input can not be read any further and the batch ends with its failed result.
+	 * A failure of the input stream itself is not reported per element: it aborts the batch with an IOException.
+	 * @param request the servlet request (for the principal)
+	 * @param in the JSON array of operations
+	 * @param out receives the JSON array of results
+	 * @return the number of operations that succeeded
+	 * @throws IOException if the input can not be read or the output can not be written
+	 */
+	public int bulkWorkRecords(
+			HttpServletRequest request,
+			Reader in,
+			Writer out)
+			throws IOException {
+		long _started = metrics.start();
+		try {
+			ReferenceResolver _resolver = new ReferenceResolver.Batch(referenceResolver);
+			JsonReader _reader = new JsonReader(in);
+			JsonWriter _writer = new JsonWriter(out);
+			int _index = 0;
+			int _succeeded = 0;
+			// the adapters report a failure of the streams as an IOException (Gson.fromJson would wrap it in a JsonSyntaxException)
+			TypeAdapter<JsonElement> _elementAdapter = bulkGson.getAdapter(JsonElement.class);
+			TypeAdapter<WorkRecordBulkResult> _resultAdapter = bulkGson.getAdapter(WorkRecordBulkResult.class);
+			_writer.beginArray();
+			try {
+				_reader.beginArray();
+				while (true) {
+					JsonElement _element;
+					try {
+						if (!_reader.hasNext()) {
+							_reader.endArray();
+							break;
+						}
+						_element = _elementAdapter.read(_reader);
+					}
+					catch (MalformedJsonException _ex) {
+						// the reader can not skip to the next element: the batch ends with the failed result of this element
+						_resultAdapter.write(_writer, new WorkRecordBulkResult(_index++, null, null, 
+							WorkRecordBulkResult.STATUS_FAILED, "malformed JSON: " + _ex.getMessage()));
+						break;
+					}
+					WorkRecordBulkResult _result = new WorkRecordBulkResult(_index++, null, null, null, null);
+					try {
+						WorkRecordBulkOperation _operation = bulkGson.fromJson(_element, WorkRecordBulkOperation.class);
+						if (_operation == null) {
+							throw new ValidationException("operation must not be null.");
+						}
+						_result.setOp(_operation.getOp());
+						_result.setId(_operation.getId());
+						_result.setId(applyBulkOperation(request, _operation, _resolver));
+						_result.setStatus(WorkRecordBulkResult.STATUS_OK);
+						_succeeded++;
+					}
+					catch (JsonSyntaxException _ex) {
+						_result.setStatus(WorkRecordBulkResult.STATUS_FAILED);
+						_result.setMessage("invalid operation: " + _ex.getMessage());
+					}
+					catch (RuntimeException _ex) {
+						_result.setStatus(WorkRecordBulkResult.STATUS_FAILED);
+						_result.setMessage(_ex.getMessage());
+					}
+					_resultAdapter.write(_writer, _result);
+					_writer.flush();
+				}
+			}
+			finally {
+				// the operations applied so far are persisted even if the input breaks off
+				flushJournal();
+				exportSnapshot();
+			}
+			_writer.endArray();
+			_writer.flush();
+			logger.info("bulkWorkRecords() -> " + _succeeded + " of " + _index + " operations succeeded.");
+			return _succeeded;
+		}
+		finally {
+			metrics.recordOperation(WorkRecordMetrics.OP_BULK, _started);
+		}
+	}
+
+	/**
+	 * Apply one operation of a batch without flushing the persistence.
+	 * @param request the servlet request (for the principal)
+	 * @param operation the operation
+	 * @param resolver the resolver of the batch
+	 * @return the id of the workrecord
+	 */
+	private String applyBulkOperation(
+			HttpServletRequest request,
+			WorkRecordBulkOperation operation,
+			ReferenceResolver resolver) {
+		String _id = operation.getId();
+		if (WorkRecordBulkOperation.OP_CREATE.equals(operation.getOp())) {
+			if (operation.getWorkRecord() == null) {
+				throw new ValidationException("create operation must contain a workRecord.");
+			}
+			TaggedWorkRecord _taggedWR = newTaggedWorkRecord(request, operation.getWorkRecord(), resolver);
+			_id = _taggedWR.getModel().getId();
+			store.lock(_id);
+			try {
+				store.put(_taggedWR);
+				persistWorkRecord(_taggedWR, false);
+			}
+			finally {
+				store.unlock(_id);
+			}
+		} else if (WorkRecordBulkOperation.OP_UPDATE.equals(operation.getOp())) {
+			if (_id == null || operation.getWorkRecord() == null) {
+				throw new ValidationException("update operation must contain an id and a workRecord.");
+			}
+			store.lock(_id);
+			try {
+				TaggedWorkRecord _taggedWR = readTaggedWorkRecord(_id);
+				TaggedWorkRecord _updatedWR = WorkRecordStore.copyOf(_taggedWR);
+				updateTaggedWorkRecord(request, _id, _updatedWR, operation.getWorkRecord(), resolver);
+				store.replace(_taggedWR, _updatedWR);
+				persistWorkRecord(_updatedWR, false);
+			}
+			finally {
+				store.unlock(_id);
+			}
+		} else if (WorkRecordBulkOperation.OP_DELETE.equals(operation.getOp())) {
+			if (_id == null) {
+				throw new ValidationException("delete operation must contain an id.");
+			}
+			store.lock(_id);
+			try {
+				store.remove(readTaggedWorkRecord(_id));
+				persistRemoval(_id, false);
+			}
+			finally {
+				store.unlock(_id);
+			}
+		} else {
+			throw new ValidationException("unknown operation <" + operation.getOp() + ">.");
+		}
+		return _id;
+	}
+
+	/**
+	 * Notify this provider that a company was renamed: its cached title is invalidated and, 
+	 * if the init parameter rederiveTitlesOnRename is set, the companyTitle of its workrecords is updated in the background.
+	 * @param companyId the id of the renamed company
+	 */
+	public void companyRenamed(
+			String companyId) {
+		if (referenceResolver instanceof CachingReferenceResolver) {
+			((CachingReferenceResolver) referenceResolver).invalidateCompany(companyId);
+		}
+		WorkRecordQueryPlan _plan = new WorkRecordQueryPlan();
+		_plan.companyId = WorkRecordQueryPlan.key(companyId);
+		rederiveTitles(_plan);
+	}
+
+	/**
+	 * Notify this provider that a project was renamed (see {@link #companyRenamed(String)}).
+	 * @param projectId the id of the renamed project
+	 */
+	public void projectRenamed(
+			String projectId) {
+		if (referenceResolver instanceof CachingReferenceResolver) {
+			((CachingReferenceResolver) referenceResolver).invalidateProject(projectId);
+		}
+		WorkRecordQueryPlan _plan = new WorkRecordQueryPlan();
+		_plan.projectId = WorkRecordQueryPlan.key(projectId);
+		rederiveTitles(_plan);
+	}
+
+	/**
+	 * Notify this provider that a resource was renamed (see {@link #companyRenamed(String)}).
+	 * @param resourceId the id of the renamed resource
+	 */
+	public void resourceRenamed(
+			String resourceId) {
+		if (referenceResolver instanceof CachingReferenceResolver) {
+			((CachingReferenceResolver) referenceResolver).invalidateResource(resourceId);
+		}
+		WorkRecordQueryPlan _plan = new WorkRecordQueryPlan();
+		_plan.resourceId = WorkRecordQueryPlan.key(resourceId);
+		rederiveTitles(_plan);
+	}
+
+	/**
+	 * Re-derive companyTitle, projectTitle and resourceName of the workrecords selected by a plan in the background.
+	 * Does nothing unless the init parameter rederiveTitlesOnRename is set.
+	 * @param plan selects the workrecords of the renamed company, project or resource
+	 */
+	private void rederiveTitles(
+			final WorkRecordQueryPlan plan) {
+		if (rederiver == null) {
+			return;
+		}
+		rederiver.execute(new Runnable() {
+			@Override
+			public void run() {
+				int _changed = 0;
+				for (TaggedWorkRecord _candidate : store.select(loadPartitions(plan))) {
+					String _id = _candidate.getModel().getId();
+					store.lock(_id);
+					try {
+						TaggedWorkRecord _taggedWR = store.get(_id);
+						if (_taggedWR != null) {
+							TaggedWorkRecord _updatedWR = WorkRecordStore.copyOf(_taggedWR);
+							if (deriveTitles(_updatedWR.getModel())) {
+								store.replace(_taggedWR, _updatedWR);
+								persistWorkRecord(_updatedWR, false);
+								_changed++;
+							}
+						}
+					}
+					catch (RuntimeException _ex) {
+						logger.warning("workrecord <" + _id + ">: titles can not be re-derived: " + _ex.getMessage());
+					}
+					finally {
+						store.unlock(_id);
+					}
+				}
+				if (_changed > 0) {
+					flushJournal();
+					exportSnapshot();
+				}
+				logger.info("rederiveTitles() -> " + _changed + " workrecords changed.");
+			}
+		});
+	}
+
+	/**
+	 * Set the derived attributes of a workrecord from its company, project and resource.
+	 * @param model the (unpublished) workrecord
+	 * @return true if one of the derived attributes changed
+	 * @throws NotFoundException if a reference does not exist (anymore)
+	 */
+	private static boolean deriveTitles(
+			WorkRecordModel model) 
+			throws NotFoundException {
+		boolean _changed = false;
+		String _title = referenceResolver.getCompany(model.getCompanyId()).getTitle();
+		if (_title != null && !_title.equals(model.getCompanyTitle())) {
+			model.setCompanyTitle(_title);
+			_changed = true;
+		}
+		_title = referenceResolver.getProject(model.getProjectId()).getTitle();
+		if (_title != null && !_title.equals(model.getProjectTitle())) {
+			model.setProjectTitle(_title);
+			_changed = true;
+		}
+		if (isResourceDerived == true) {
+			_title = referenceResolver.getResourceModel(model.getResourceId()).getName();
+			if (_title != null && !_title.equals(model.getResourceName())) {
+				model.setResourceName(_title);
+				_changed = true;
+			}
+		}
+		return _changed;
+	}
+
 	@Override
 	public void deleteWorkRecord(
 			String id) 
 		throws NotFoundException, InternalServerErrorException {
-		TaggedWorkRecord _taggedWR = readTaggedWorkRecord(id);
-		// remove all tagRefs of this TaggedWorkRecord from tagRefIndex	
-		for (TagRefModel _tagRef : _taggedWR.getTagRefs()) {
-			if (tagRefIndex.remove(_tagRef.getId()) == null) {
-				throw new InternalServerErrorException("tagRef <" + _tagRef.getId()
-						+ "> can not be removed, because it does not exist in the tagRefIndex");
+		long _started = metrics.start();
+		try {
+			store.lock(id);
+			try {
+				TaggedWorkRecord _taggedWR = readTaggedWorkRecord(id);
+				// removes all tagRefs of this TaggedWorkRecord from the tagRefIndex, too
+				store.remove(_taggedWR);
+				persistRemoval(id);
 			}
+			finally {
+				store.unlock(id);
+			}
+			logger.info("deleteWorkRecord(" + id + ") -> OK");
+			exportSnapshot();
 		}
-		if (index.remove(id) == null) {
-			throw new InternalServerErrorException("workRecord <" + id
-					+ "> can not be removed, because it does not exist in the index.");
-		}
-		logger.info("deleteWorkRecord(" + id + ") -> OK");
-		if (isPersistent) {
-			exportJson(index.values());
+		finally {
+			metrics.recordOperation(WorkRecordMetrics.OP_DELETE, _started);
 		}
 	}
 
@@ -398,19 +1580,26 @@ public class FileServiceProvider extends AbstractFileServiceProvider<TaggedWorkR
 			int position, 
 			int size) 
 	{
-		List<TagRefModel> _tags = readTaggedWorkRecord(id).getTagRefs();
-		Collections.sort(_tags, TagRefModel.TagRefComparator);
+		long _started = metrics.start();
+		try {
+			// sort a copy; the tagRefs of a published workrecord must not be modified
+			List<TagRefModel> _tags = new ArrayList<TagRefModel>(readTaggedWorkRecord(id).getTagRefs());
+			Collections.sort(_tags, TagRefModel.TagRefComparator);
 		
-		ArrayList<TagRefModel> _selection = new ArrayList<TagRefModel>();
-		for (int i = 0; i < _tags.size(); i++) {
-			if (i >= position && i < (position + size)) {
-				_selection.add(_tags.get(i));
+			ArrayList<TagRefModel> _selection = new ArrayList<TagRefModel>();
+			for (int i = 0; i < _tags.size(); i++) {
+				if (i >= position && i < (position + size)) {
+					_selection.add(_tags.get(i));
+				}
 			}
+			logger.info("listTagRefs(<" + id + ">, <" + queryType + ">, <" + query + 
+					">, <" + position + ">, <" + size + ">) -> " + _selection.size()
+					+ " values");
+			return _selection;
+		}
+		finally {
+			metrics.recordOperation(WorkRecordMetrics.OP_LIST_TAGREFS, _started);
 		}
-		logger.info("listTagRefs(<" + id + ">, <" + queryType + ">, <" + query + 
-				">, <" + position + ">, <" + size + ">) -> " + _selection.size()
-				+ " values");
-		return _selection;
 	}
 	
 	/* (non-Javadoc)
@@ -423,14 +1612,52 @@ public class FileServiceProvider extends AbstractFileServiceProvider<TaggedWorkR
 			TagRefModel model)
 			throws DuplicateException, ValidationException 
 	{
-		TaggedWorkRecord _taggedWR = readTaggedWorkRecord(workRecordId);
+		long _started = metrics.start();
+		try {
+			store.lock(workRecordId);
+			try {
+				TaggedWorkRecord _taggedWR = readTaggedWorkRecord(workRecordId);
+				TaggedWorkRecord _updatedWR = WorkRecordStore.copyOf(_taggedWR);
+				addTagRef(request, _updatedWR, model);
+				store.replace(_taggedWR, _updatedWR);
+				persistWorkRecord(_updatedWR);
+			}
+			finally {
+				store.unlock(workRecordId);
+			}
+		
+			logger.info("createTagRef(" + workRecordId + ") -> <" + model.getId() + ">");
+			logger.log(Level.FINE, "createTagRef({0}) -> {1}", new Object[] { workRecordId, new LazyJson(model) });
+			exportSnapshot();
+			return model;
+		}
+		finally {
+			metrics.recordOperation(WorkRecordMetrics.OP_CREATE_TAGREF, _started);
+		}
+	}
+
+	/**
+	 * Validate a new TagRef and add it to an unpublished (new or copied) workrecord.
+	 * @param request the servlet request (for the principal)
+	 * @param taggedWR the unpublished workrecord
+	 * @param model the new TagRef
+	 * @throws DuplicateException if the workrecord contains the tag already
+	 * @throws ValidationException if the TagRef is not valid
+	 */
+	private void addTagRef(
+			HttpServletRequest request,
+			TaggedWorkRecord taggedWR,
+			TagRefModel model)
+			throws DuplicateException, ValidationException 
+	{
+		String _workRecordId = taggedWR.getModel().getId();
 		if (model.getTagId() == null || model.getTagId().isEmpty()) {
-			throw new ValidationException("TagRef in WorkRecord <" + workRecordId + "> must contain a valid tagId.");
+			throw new ValidationException("TagRef in WorkRecord <" + _workRecordId + "> must contain a valid tagId.");
 		}
 		// a tag can be contained as a TagRef within a WorkRecord 0 or 1 times
-		if (_taggedWR.containsTag(model.getTagId())) {
+		if (taggedWR.containsTag(model.getTagId())) {
 			throw new DuplicateException("TagRef with Tag <" + model.getTagId() + 
-					"> exists already in WorkRecord <" + workRecordId + ">.");
+					"> exists already in WorkRecord <" + _workRecordId + ">.");
 		}
 		
 		if (lang == null) {
@@ -441,7 +1668,7 @@ public class FileServiceProvider extends AbstractFileServiceProvider<TaggedWorkR
 		if (_id == null || _id.isEmpty()) {
 			_id = UUID.randomUUID().toString();
 		} else {
-			if (tagRefIndex.get(_id) != null) {
+			if (store.getTagRef(_id) != null) {
 				throw new DuplicateException("TagRef with id <" + _id + 
 						"> exists already in tagRefIndex.");
 			}
@@ -454,15 +1681,35 @@ public class FileServiceProvider extends AbstractFileServiceProvider<TaggedWorkR
 		model.setId(_id);
 		model.setCreatedAt(new Date());
 		model.setCreatedBy(ServiceUtil.getPrincipal(request));
-		
-		tagRefIndex.put(_id, model);
-		_taggedWR.addTagRef(model);
-		
-		logger.info("createTagRef(" + workRecordId + ") -> " + PrettyPrinter.prettyPrintAsJSON(model));
-		if (isPersistent) {
-			exportJson(index.values());
+		taggedWR.addTagRef(model);
+	}
+
+	/**
+	 * Validate and add a TagRef for each tag of a tagIdList to an unpublished (new or copied) workrecord.
+	 * If one of them is not valid, the workrecord must be discarded.
+	 * @param request the servlet request (for the principal)
+	 * @param taggedWR the unpublished workrecord
+	 * @param tagIdList the list of tagIds (format: tagId{,tagId}); may be null
+	 * @return the new TagRefs
+	 * @throws DuplicateException if a tag is contained twice
+	 * @throws ValidationException if a TagRef is not valid
+	 */
+	private List<TagRefModel> addTagRefs(
+			HttpServletRequest request,
+			TaggedWorkRecord taggedWR,
+			String tagIdList)
+			throws DuplicateException, ValidationException
+	{
+		ArrayList<TagRefModel> _tagRefs = new ArrayList<TagRefModel>();
+		if (tagIdList != null && !tagIdList.isEmpty()) {
+			StringTokenizer _st = new StringTokenizer(tagIdList, ",");
+			while (_st.hasMoreTokens()) {
+				TagRefModel _tagRef = new TagRefModel(_st.nextToken());
+				addTagRef(request, taggedWR, _tagRef);
+				_tagRefs.add(_tagRef);
+			}
 		}
-		return model;
+		return _tagRefs;
 	}
 
 	/* (non-Javadoc)
@@ -474,15 +1721,22 @@ public class FileServiceProvider extends AbstractFileServiceProvider<TaggedWorkR
 			String tagRefId)
 			throws NotFoundException 
 	{
-		readTaggedWorkRecord(workRecordId);		// verify that the workrecord exists
-		TagRefModel _tagRef = tagRefIndex.get(tagRefId);
-		if (_tagRef == null) {
-			throw new NotFoundException("TagRef <" + workRecordId + "/tagref/" + tagRefId +
-					"> was not found.");
+		long _started = metrics.start();
+		try {
+			readTaggedWorkRecord(workRecordId);		// verify that the workrecord exists
+			TagRefModel _tagRef = store.getTagRef(tagRefId);
+			if (_tagRef == null) {
+				throw new NotFoundException("TagRef <" + workRecordId + "/tagref/" + tagRefId +
+						"> was not found.");
+			}
+			if (logger.isLoggable(Level.FINE)) {
+				logger.log(Level.FINE, "readTagRef({0}, {1}) -> {2}", new Object[] { workRecordId, tagRefId, new LazyJson(_tagRef) });
+			}
+			return _tagRef;
+		}
+		finally {
+			metrics.recordOperation(WorkRecordMetrics.OP_READ_TAGREF, _started);
 		}
-		logger.info("readRateRef(" + workRecordId + ", " + tagRefId + ") -> "
-				+ PrettyPrinter.prettyPrintAsJSON(_tagRef));
-		return _tagRef;
 	}
 
 	/* (non-Javadoc)
@@ -494,27 +1748,38 @@ public class FileServiceProvider extends AbstractFileServiceProvider<TaggedWorkR
 			String tagRefId)
 			throws NotFoundException, InternalServerErrorException 
 	{
-		TaggedWorkRecord _taggedWR = readTaggedWorkRecord(workRecordId);
-		TagRefModel _tagRef = tagRefIndex.get(tagRefId);
-		if (_tagRef == null) {
-			throw new NotFoundException("TagRef <" + workRecordId + "/tagref/" + tagRefId +
-					"> was not found.");
+		long _started = metrics.start();
+		try {
+			store.lock(workRecordId);
+			try {
+				TaggedWorkRecord _taggedWR = readTaggedWorkRecord(workRecordId);
+				TagRefModel _tagRef = store.getTagRef(tagRefId);
+				if (_tagRef == null) {
+					throw new NotFoundException("TagRef <" + workRecordId + "/tagref/" + tagRefId +
+							"> was not found.");
+				}
+			
+				// 1) remove the TagRef from (a copy of) its WorkRecord
+				TaggedWorkRecord _updatedWR = WorkRecordStore.copyOf(_taggedWR);
+				// remove the instance contained in the copy (the storage engine may materialize a new instance on every read)
+				TagRefModel _containedTagRef = WorkRecordStore.findTagRef(_updatedWR, tagRefId);
+				if (_containedTagRef == null || _updatedWR.removeTagRef(_containedTagRef) == false) {
+					throw new InternalServerErrorException("TagRef <" + workRecordId + "/tagref/" + tagRefId
+							+ "> can not be removed, because it is an orphan.");
+				}
+				// 2) publish the WorkRecord; this removes the TagRef from the tagRefIndex
+				store.replace(_taggedWR, _updatedWR);
+				persistTagRefRemoval(_updatedWR, tagRefId);
+			}
+			finally {
+				store.unlock(workRecordId);
+			}
+			logger.info("deleteTagRef(" + workRecordId + ", " + tagRefId + ") -> OK");
+			exportSnapshot();
+		}
+		finally {
+			metrics.recordOperation(WorkRecordMetrics.OP_DELETE_TAGREF, _started);
 		}
-		
-		// 1) remove the TagRef from its Resource
-		if (_taggedWR.removeTagRef(_tagRef) == false) {
-			throw new InternalServerErrorException("TagRef <" + workRecordId + "/tagref/" + tagRefId
-					+ "> can not be removed, because it is an orphan.");
-		}
-		// 2) remove the TagRef from the tagRefIndex
-		if (tagRefIndex.remove(_tagRef.getId()) == null) {
-			throw new InternalServerErrorException("TagRef <" + workRecordId + "/tagref/" + tagRefId
-					+ "> can not be removed, because it does not exist in the index.");
-		}	
-		logger.info("deleteTagRef(" + workRecordId + ", " + tagRefId + ") -> OK");
-		if (isPersistent) {
-			exportJson(index.values());
-		}				
 	}
 
 	// format of String tagIdList ::=  tagId{.tagId}
@@ -524,13 +1789,30 @@ public class FileServiceProvider extends AbstractFileServiceProvider<TaggedWorkR
 			String workRecordId, 
 			String tagIdList) 
 	{
-		ArrayList<TagRefModel> _tagRefs = new ArrayList<TagRefModel>();
-		if (tagIdList != null && !tagIdList.isEmpty()) {
-			StringTokenizer _st = new StringTokenizer(tagIdList, ",");
-			while (_st.hasMoreTokens()) {
-				_tagRefs.add(createTagRef(request, workRecordId, new TagRefModel(_st.nextToken())));
+		long _started = metrics.start();
+		try {
+			if (tagIdList == null || tagIdList.isEmpty()) {
+				return new ArrayList<TagRefModel>();
+			}
+			List<TagRefModel> _tagRefs = null;
+			// all tags are validated and added to a copy of the workrecord, which is then published and persisted once
+			store.lock(workRecordId);
+			try {
+				TaggedWorkRecord _taggedWR = readTaggedWorkRecord(workRecordId);
+				TaggedWorkRecord _updatedWR = WorkRecordStore.copyOf(_taggedWR);
+				_tagRefs = addTagRefs(request, _updatedWR, tagIdList);
+				store.replace(_taggedWR, _updatedWR);
+				persistWorkRecord(_updatedWR);
 			}
+			finally {
+				store.unlock(workRecordId);
+			}
+			logger.info("addTags(" + workRecordId + ", " + tagIdList + ") -> " + _tagRefs.size() + " tagRefs");
+			exportSnapshot();
+			return _tagRefs;
+		}
+		finally {
+			metrics.recordOperation(WorkRecordMetrics.OP_ADD_TAGS, _started);
 		}
-		return _tagRefs;
 	}
 }
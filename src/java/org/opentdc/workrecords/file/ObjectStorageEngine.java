@@ -0,0 +1,110 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.workrecords.file;
+
+import java.util.Date;
+
+import org.opentdc.service.TagRefModel;
+import org.opentdc.workrecords.TaggedWorkRecord;
+import org.opentdc.workrecords.WorkRecordModel;
+
+/**
+ * Keeps each workrecord as the TaggedWorkRecord object graph it was published with (the default engine).
+ * Reads are free, but every workrecord carries its own copies of ids, titles and dates.
+ */
+class ObjectStorageEngine implements StorageEngine {
+	// ObjectWorkRecord (1 reference, 1 long), TaggedWorkRecord with its tagRef list, WorkRecordModel (14 references, 2 ints, 3 booleans) 
+	private static final int FIXED_BYTES = 24 + 16 + 24 + 16 + 80;
+	// TagRefModel (4 references) and its slot in the tagRef list
+	private static final int TAGREF_BYTES = 32 + StoredWorkRecord.REFERENCE_BYTES;
+
+	@Override
+	public StoredWorkRecord store(
+			TaggedWorkRecord workRecord,
+			long version) {
+		return new ObjectWorkRecord(workRecord, version);
+	}
+
+	@Override
+	public long sharedBytes() {
+		return 0;
+	}
+
+	@Override
+	public String getName() {
+		return ENGINE_OBJECT;
+	}
+
+	static class ObjectWorkRecord extends StoredWorkRecord {
+		private final TaggedWorkRecord workRecord;
+
+		ObjectWorkRecord(TaggedWorkRecord workRecord, long version) {
+			super(version);
+			this.workRecord = workRecord;
+		}
+
+		@Override
+		String getId() {
+			return workRecord.getModel().getId();
+		}
+
+		@Override
+		long getStartAt() {
+			Date _startAt = workRecord.getModel().getStartAt();
+			return _startAt == null ? Long.MIN_VALUE : _startAt.getTime();
+		}
+
+		@Override
+		TaggedWorkRecord materialize() {
+			return workRecord;
+		}
+
+		/**
+		 * Strings are counted as if they were not shared with other workrecords (as after loading a snapshot).
+		 */
+		@Override
+		long estimateBytes() {
+			WorkRecordModel _model = workRecord.getModel();
+			long _bytes = FIXED_BYTES + 3 * DATE_BYTES
+					+ stringBytes(_model.getId())
+					+ stringBytes(_model.getCompanyId())
+					+ stringBytes(_model.getCompanyTitle())
+					+ stringBytes(_model.getProjectId())
+					+ stringBytes(_model.getProjectTitle())
+					+ stringBytes(_model.getResourceId())
+					+ stringBytes(_model.getResourceName())
+					+ stringBytes(_model.getComment())
+					+ stringBytes(_model.getTagIdList())
+					+ stringBytes(_model.getCreatedBy())
+					+ stringBytes(_model.getModifiedBy());
+			for (TagRefModel _tagRef : workRecord.getTagRefs()) {
+				_bytes += TAGREF_BYTES + DATE_BYTES
+						+ stringBytes(_tagRef.getId())
+						+ stringBytes(_tagRef.getTagId())
+						+ stringBytes(_tagRef.getCreatedBy());
+			}
+			return _bytes;
+		}
+	}
+}
@@ -0,0 +1,198 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.workrecords.file;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.opentdc.resources.ResourceModel;
+import org.opentdc.service.exception.NotFoundException;
+import org.opentdc.wtt.CompanyModel;
+import org.opentdc.wtt.ProjectModel;
+
+/**
+ * Looks up the company, project and resource a workrecord refers to,
+ * in order to validate the references and to derive companyTitle, projectTitle and resourceName.
+ * This implementation delegates to the file service providers of wtt and resources.
+ */
+class ReferenceResolver {
+
+	/**
+	 * @param id the id of the company
+	 * @return the company
+	 * @throws NotFoundException if there is no company with this id
+	 */
+	CompanyModel getCompany(
+			String id)
+			throws NotFoundException {
+		return org.opentdc.wtt.file.FileServiceProvider.getCompany(id);
+	}
+
+	/**
+	 * @param id the id of the project
+	 * @return the project
+	 * @throws NotFoundException if there is no project with this id
+	 */
+	ProjectModel getProject(
+			String id)
+			throws NotFoundException {
+		return org.opentdc.wtt.file.FileServiceProvider.getProject(id);
+	}
+
+	/**
+	 * @param id the id of the resource
+	 * @return the resource
+	 * @throws NotFoundException if there is no resource with this id
+	 */
+	ResourceModel getResourceModel(
+			String id)
+			throws NotFoundException {
+		return org.opentdc.resources.file.FileServiceProvider.getResourceModel(id);
+	}
+
+	/**
+	 * A resolver that records the latency of the lookups of its delegate in the {@link WorkRecordMetrics}.
+	 */
+	static class Timed extends ReferenceResolver {
+		private final ReferenceResolver delegate;
+		private final WorkRecordMetrics metrics;
+
+		Timed(ReferenceResolver delegate, WorkRecordMetrics metrics) {
+			this.delegate = delegate;
+			this.metrics = metrics;
+		}
+
+		@Override
+		CompanyModel getCompany(
+				String id)
+				throws NotFoundException {
+			long _start = metrics.start();
+			try {
+				return delegate.getCompany(id);
+			}
+			finally {
+				metrics.recordLookup(WorkRecordMetrics.LOOKUP_COMPANY, _start);
+			}
+		}
+
+		@Override
+		ProjectModel getProject(
+				String id)
+				throws NotFoundException {
+			long _start = metrics.start();
+			try {
+				return delegate.getProject(id);
+			}
+			finally {
+				metrics.recordLookup(WorkRecordMetrics.LOOKUP_PROJECT, _start);
+			}
+		}
+
+		@Override
+		ResourceModel getResourceModel(
+				String id)
+				throws NotFoundException {
+			long _start = metrics.start();
+			try {
+				return delegate.getResourceModel(id);
+			}
+			finally {
+				metrics.recordLookup(WorkRecordMetrics.LOOKUP_RESOURCE, _start);
+			}
+		}
+	}
+
+	/**
+	 * A resolver for one batch of changes: each reference is looked up only once per batch
+	 * (including references that turn out not to exist).
+	 * Not thread-safe; use one instance per batch.
+	 */
+	static class Batch extends ReferenceResolver {
+		private final ReferenceResolver delegate;
+		private final Map<String, CompanyModel> companies = new HashMap<String, CompanyModel>();
+		private final Map<String, ProjectModel> projects = new HashMap<String, ProjectModel>();
+		private final Map<String, ResourceModel> resources = new HashMap<String, ResourceModel>();
+
+		Batch(ReferenceResolver delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		CompanyModel getCompany(
+				String id)
+				throws NotFoundException {
+			if (!companies.containsKey(id)) {
+				try {
+					companies.put(id, delegate.getCompany(id));
+				}
+				catch (NotFoundException _ex) {
+					companies.put(id, null);
+				}
+			}
+			CompanyModel _company = companies.get(id);
+			if (_company == null) {
+				throw new NotFoundException("company <" + id + "> was not found.");
+			}
+			return _company;
+		}
+
+		@Override
+		ProjectModel getProject(
+				String id)
+				throws NotFoundException {
+			if (!projects.containsKey(id)) {
+				try {
+					projects.put(id, delegate.getProject(id));
+				}
+				catch (NotFoundException _ex) {
+					projects.put(id, null);
+				}
+			}
+			ProjectModel _project = projects.get(id);
+			if (_project == null) {
+				throw new NotFoundException("project <" + id + "> was not found.");
+			}
+			return _project;
+		}
+
+		@Override
+		ResourceModel getResourceModel(
+				String id)
+				throws NotFoundException {
+			if (!resources.containsKey(id)) {
+				try {
+					resources.put(id, delegate.getResourceModel(id));
+				}
+				catch (NotFoundException _ex) {
+					resources.put(id, null);
+				}
+			}
+			ResourceModel _resource = resources.get(id);
+			if (_resource == null) {
+				throw new NotFoundException("resource <" + id + "> was not found.");
+			}
+			return _resource;
+		}
+	}
+}
@@ -0,0 +1,76 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.workrecords.file;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import org.opentdc.workrecords.TaggedWorkRecord;
+
+/**
+ * Converts a workrecord snapshot between the JSON and the binary format, e.g. to migrate a data directory
+ * before switching snapshotFormat, or to export a binary snapshot for other tools.
+ * The format of each file is derived from its name: *.bin is binary, everything else JSON.
+ *
+ * Usage: <code>java org.opentdc.workrecords.file.SnapshotConverter data.json data.bin</code>
+ */
+public class SnapshotConverter {
+
+	/**
+	 * @param args the source and the target file
+	 * @throws IOException
+	 */
+	public static void main(
+			String[] args)
+			throws IOException {
+		if (args.length != 2) {
+			System.err.println("usage: SnapshotConverter <from> <to>   (*.bin: binary format, otherwise JSON)");
+			System.exit(1);
+		}
+		File _from = new File(args[0]);
+		File _to = new File(args[1]);
+		long _start = System.currentTimeMillis();
+		List<TaggedWorkRecord> _workRecords = SnapshotWriter.read(_from, formatOf(_from));
+		FileOutputStream _out = new FileOutputStream(_to);
+		try {
+			SnapshotWriter.write(_workRecords, _out, formatOf(_to));
+		}
+		finally {
+			_out.close();
+		}
+		System.out.println("converted " + _workRecords.size() + " workrecords from <" + _from + "> (" + _from.length() + " bytes) to <"
+				+ _to + "> (" + _to.length() + " bytes) in " + (System.currentTimeMillis() - _start) + " ms.");
+	}
+
+	/**
+	 * @param f a snapshot file
+	 * @return the format of the snapshot file, derived from its name
+	 */
+	static String formatOf(
+			File f) {
+		return f.getName().endsWith(".bin") ? SnapshotWriter.FORMAT_BINARY : SnapshotWriter.FORMAT_JSON;
+	}
+}
@@ -0,0 +1,482 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.workrecords.file;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.opentdc.service.exception.InternalServerErrorException;
+import org.opentdc.workrecords.TaggedWorkRecord;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * Writes the snapshot of all workrecords, either as JSON (data.json, {@link #FORMAT_JSON}) 
+ * or in the binary format of {@link BinarySnapshot} (data.bin, {@link #FORMAT_BINARY}).
+ * A snapshot is written to a temporary file first, synced to disk and then renamed atomically,
+ * so that a crash during a write never leaves a truncated data.json behind.
+ *
+ * The durability of a change is configurable:
+ * <ul>
+ * <li>{@link #DURABILITY_SYNC}: the request thread writes the snapshot before it returns (one write per change).</li>
+ * <li>{@link #DURABILITY_GROUP_COMMIT}: the request thread waits until a snapshot containing its change is written;
+ * changes arriving while a snapshot is written are coalesced into the next one.</li>
+ * <li>{@link #DURABILITY_ASYNC}: the request thread returns immediately; the background thread writes 
+ * one snapshot per flush interval, or earlier once the flush threshold of changes is reached.</li>
+ * </ul>
+ * On {@link #close()}, all pending changes are written before the writer stops. The web application closes the writer
+ * through {@link FileServiceProvider#shutdown()}; a shutdown hook closes it if the JVM exits without stopping the application.
+ *
+ * With {@link WorkRecordPartitions}, only the partitions changed since the last write are rewritten instead of the full snapshot.
+ */
+class SnapshotWriter implements Runnable {
+	static final String DATA_FN = "data.json";
+	static final String DATA_BIN_FN = "data.bin";
+	static final String FORMAT_JSON = "json";
+	static final String FORMAT_BINARY = "binary";
+	static final String TMP_SUFFIX = ".tmp";
+	static final String DURABILITY_SYNC = "sync";
+	static final String DURABILITY_GROUP_COMMIT = "group-commit";
+	static final String DURABILITY_ASYNC = "async";
+
+	private static final Logger logger = Logger.getLogger(SnapshotWriter.class.getName());
+	// dates are written like in the journal (ISO-8601 with milliseconds in UTC), so that a compaction keeps the milliseconds
+	private static final Gson gson = new GsonBuilder()
+		.registerTypeAdapter(Date.class, new WorkRecordJournal.DateAdapter())
+		.setPrettyPrinting()
+		.create();
+
+	private final File dataF;
+	private final File tmpF;
+	private final WorkRecordStore store;
+	private final WorkRecordPartitions partitions;
+	private final WorkRecordMetrics metrics;
+	private final String format;
+	private final String durability;
+	private final long flushInterval;
+	private final int flushThreshold;
+	private final Object writeLock = new Object();
+	private Thread thread = null;
+	private Thread shutdownHook = null;
+
+	// guarded by this
+	private long requested = 0;		// number of changes so far
+	private long written = 0;		// number of changes contained in the last snapshot written
+	private long failed = 0;		// number of changes contained in the last snapshot that could not be written
+	private RuntimeException error = null;
+	private int waiters = 0;
+	private boolean closed = false;
+
+	/**
+	 * Constructor.
+	 * @param dataF the snapshot file
+	 * @param store the store to take the snapshots from
+	 * @param format FORMAT_JSON or FORMAT_BINARY
+	 * @param durability one of DURABILITY_SYNC, DURABILITY_GROUP_COMMIT or DURABILITY_ASYNC
+	 * @param flushInterval the maximal time in ms a change waits for being written (async)
+	 * @param flushThreshold the number of changes that triggers a write before the flush interval elapsed (async)
+	 */
+	SnapshotWriter(
+			File dataF,
+			WorkRecordStore store,
+			String format,
+			String durability,
+			long flushInterval,
+			int flushThreshold) {
+		this(dataF, store, null, new WorkRecordMetrics(false), format, durability, flushInterval, flushThreshold);
+	}
+
+	/**
+	 * Constructor.
+	 * @param dataF the snapshot file, or the directory of the partitions
+	 * @param store the store to take the snapshots from
+	 * @param partitions the partitions to write instead of a full snapshot (may be null)
+	 * @param metrics records the time and size of the writes
+	 * @param format FORMAT_JSON or FORMAT_BINARY
+	 * @param durability one of DURABILITY_SYNC, DURABILITY_GROUP_COMMIT or DURABILITY_ASYNC
+	 * @param flushInterval the maximal time in ms a change waits for being written (async)
+	 * @param flushThreshold the number of changes that triggers a write before the flush interval elapsed (async)
+	 */
+	SnapshotWriter(
+			File dataF,
+			WorkRecordStore store,
+			WorkRecordPartitions partitions,
+			WorkRecordMetrics metrics,
+			String format,
+			String durability,
+			long flushInterval,
+			int flushThreshold) {
+		this.dataF = dataF;
+		this.tmpF = new File(dataF.getPath() + TMP_SUFFIX);
+		this.store = store;
+		this.partitions = partitions;
+		this.metrics = metrics;
+		this.format = format;
+		this.durability = durability;
+		this.flushInterval = flushInterval;
+		this.flushThreshold = flushThreshold;
+	}
+
+	/**
+	 * Start the background thread (not needed for DURABILITY_SYNC).
+	 */
+	synchronized void start() {
+		if (durability.equals(DURABILITY_SYNC) || thread != null) {
+			return;
+		}
+		thread = new Thread(this, "workrecords-snapshot-writer");
+		thread.setDaemon(true);
+		thread.start();
+		shutdownHook = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				close();
+			}
+		}, "workrecords-snapshot-writer-shutdown");
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+	}
+
+	/**
+	 * Register a change; it must be visible in the store already.
+	 * Depending on the durability, the snapshot is written before this method returns, or later.
+	 * @throws InternalServerErrorException if the snapshot can not be written (sync, group-commit)
+	 */
+	void changed() {
+		long _seq;
+		synchronized (this) {
+			if (thread == null || closed) {
+				_seq = -1;
+			} else {
+				_seq = ++requested;
+				if (durability.equals(DURABILITY_GROUP_COMMIT)) {
+					waiters++;
+				}
+				notifyAll();
+			}
+		}
+		if (_seq < 0) {
+			writeSnapshot();
+		} else if (durability.equals(DURABILITY_GROUP_COMMIT)) {
+			await(_seq);
+		}
+	}
+
+	/**
+	 * Wait until all changes registered so far are written.
+	 * @throws InternalServerErrorException if the snapshot can not be written
+	 */
+	void flush() {
+		long _seq;
+		synchronized (this) {
+			if (thread == null || requested == written) {
+				return;
+			}
+			_seq = requested;
+			waiters++;
+			notifyAll();
+		}
+		await(_seq);
+	}
+
+	/**
+	 * @return the number of changes registered but not yet written (0 for DURABILITY_SYNC)
+	 */
+	synchronized long pendingChanges() {
+		return requested - written;
+	}
+
+	private synchronized void await(
+			long seq) {
+		try {
+			while (written < seq) {
+				if (error != null && failed >= seq) {
+					throw new InternalServerErrorException("workrecord snapshot <" + dataF + "> can not be written: " + error.getMessage());
+				}
+				if (closed && !thread.isAlive()) {
+					throw new InternalServerErrorException("workrecord snapshot <" + dataF + "> was closed before the change was written.");
+				}
+				wait(flushInterval);
+			}
+		}
+		catch (InterruptedException _ex) {
+			Thread.currentThread().interrupt();
+			throw new InternalServerErrorException("interrupted while waiting for the workrecord snapshot <" + dataF + ">.");
+		}
+		finally {
+			waiters--;
+		}
+	}
+
+	/**
+	 * Write the pending changes and stop the background thread.
+	 */
+	void close() {
+		Thread _thread;
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+			_thread = thread;
+		}
+		if (_thread != null) {
+			try {
+				_thread.join();
+			}
+			catch (InterruptedException _ex) {
+				Thread.currentThread().interrupt();
+			}
+			try {
+				Runtime.getRuntime().removeShutdownHook(shutdownHook);
+			}
+			catch (IllegalStateException _ex) {
+				// called from the shutdown hook
+			}
+		}
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			long _target;
+			synchronized (this) {
+				try {
+					while (!closed && requested == written) {
+						wait();
+					}
+					// coalesce the changes of one flush interval, unless someone waits for them
+					long _deadline = System.currentTimeMillis() + flushInterval;
+					while (!closed && waiters == 0 && requested - written < flushThreshold) {
+						long _remaining = _deadline - System.currentTimeMillis();
+						if (_remaining <= 0) {
+							break;
+						}
+						wait(_remaining);
+					}
+				}
+				catch (InterruptedException _ex) {
+					closed = true;
+				}
+				if (closed && requested == written) {
+					return;
+				}
+				_target = requested;
+			}
+			try {
+				writeSnapshot();
+				synchronized (this) {
+					written = _target;
+					error = null;
+					notifyAll();
+				}
+			}
+			catch (RuntimeException _ex) {
+				logger.warning("workrecord snapshot <" + dataF + "> can not be written: " + _ex.getMessage());
+				synchronized (this) {
+					error = _ex;
+					failed = _target;
+					notifyAll();
+					if (closed) {
+						return;
+					}
+					try {
+						// retry after the next flush interval
+						wait(flushInterval);
+					}
+					catch (InterruptedException _ex2) {
+						closed = true;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Take a snapshot of the store and write it (or write the changed partitions).
+	 */
+	void writeSnapshot() {
+		// the snapshot is taken inside the lock, so that a later snapshot is never overwritten by an earlier one
+		synchronized (writeLock) {
+			if (partitions != null) {
+				long _start = metrics.start();
+				metrics.recordExport(_start, partitions.writeDirty());
+			} else {
+				write(store.snapshot());
+			}
+		}
+	}
+
+	/**
+	 * Write a snapshot to a temporary file and rename it to the snapshot file.
+	 * @param workRecords the workrecords
+	 * @throws InternalServerErrorException if the snapshot can not be written
+	 */
+	void write(
+			Collection<TaggedWorkRecord> workRecords) {
+		synchronized (writeLock) {
+			try {
+				long _start = metrics.start();
+				writeAtomically(workRecords, dataF, tmpF, format);
+				metrics.recordExport(_start, dataF.length());
+				logger.fine("write(" + dataF + ") -> " + workRecords.size() + " workrecords.");
+			}
+			catch (IOException _ex) {
+				throw new InternalServerErrorException("workrecord snapshot <" + dataF + "> can not be written: " + _ex.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Write workrecords to a temporary file, sync it to disk and rename it to the target file.
+	 * @param workRecords the workrecords
+	 * @param f the target file
+	 * @param tmpF the temporary file
+	 * @param format FORMAT_JSON or FORMAT_BINARY
+	 * @throws IOException
+	 */
+	static void writeAtomically(
+			Collection<TaggedWorkRecord> workRecords,
+			File f,
+			File tmpF,
+			String format)
+			throws IOException {
+		FileOutputStream _out = new FileOutputStream(tmpF);
+		try {
+			write(workRecords, _out, format);
+			_out.getFD().sync();
+		}
+		finally {
+			_out.close();
+		}
+		moveAtomically(tmpF, f);
+	}
+
+	/**
+	 * Rename a file, replacing the target atomically where the file system supports it.
+	 * @param from the file to rename
+	 * @param to the target file
+	 * @throws IOException
+	 */
+	static void moveAtomically(
+			File from,
+			File to)
+			throws IOException {
+		try {
+			Files.move(from.toPath(), to.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (AtomicMoveNotSupportedException _ex) {
+			Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Find the snapshot to load from a data directory. Usually this is the file of the configured format;
+	 * but if snapshotFormat was switched, the file of the other format may contain later changes. 
+	 * Therefore the file written last is chosen, the file of the configured format if both were written at the same time.
+	 * @param dataDir the data directory
+	 * @param format the configured snapshotFormat, FORMAT_JSON or FORMAT_BINARY
+	 * @return data.json or data.bin, whichever was written last; null if neither exists
+	 */
+	static File latestSnapshot(
+			File dataDir,
+			String format) {
+		File _jsonF = new File(dataDir, DATA_FN);
+		File _binaryF = new File(dataDir, DATA_BIN_FN);
+		File _configuredF = format.equals(FORMAT_BINARY) ? _binaryF : _jsonF;
+		File _otherF = format.equals(FORMAT_BINARY) ? _jsonF : _binaryF;
+		if (!_otherF.exists()) {
+			return _configuredF.exists() ? _configuredF : null;
+		}
+		if (!_configuredF.exists() || _otherF.lastModified() > _configuredF.lastModified()) {
+			return _otherF;
+		}
+		return _configuredF;
+	}
+
+	/**
+	 * Write workrecords in one of the snapshot formats.
+	 * @param workRecords the workrecords
+	 * @param out the stream to write to; it is not closed
+	 * @param format FORMAT_JSON or FORMAT_BINARY
+	 * @throws IOException
+	 */
+	static void write(
+			Collection<TaggedWorkRecord> workRecords,
+			OutputStream out,
+			String format)
+			throws IOException {
+		if (format.equals(FORMAT_BINARY)) {
+			BinarySnapshot.write(workRecords, out);
+		} else {
+			Writer _writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+			gson.toJson(workRecords, _writer);
+			_writer.flush();
+		}
+	}
+
+	/**
+	 * Read workrecords in one of the snapshot formats.
+	 * @param f the snapshot file
+	 * @param format FORMAT_JSON or FORMAT_BINARY
+	 * @return the workrecords
+	 * @throws IOException
+	 */
+	static List<TaggedWorkRecord> read(
+			File f,
+			String format)
+			throws IOException {
+		if (format.equals(FORMAT_BINARY)) {
+			return BinarySnapshot.read(f);
+		}
+		Reader _reader = new BufferedReader(new InputStreamReader(new FileInputStream(f), "UTF-8"));
+		try {
+			List<TaggedWorkRecord> _workRecords = gson.fromJson(_reader, new TypeToken<List<TaggedWorkRecord>>(){}.getType());
+			return _workRecords == null ? new ArrayList<TaggedWorkRecord>() : _workRecords;
+		}
+		catch (JsonParseException _ex) {
+			throw new IOException("JSON snapshot <" + f + "> can not be parsed: " + _ex.getMessage());
+		}
+		finally {
+			_reader.close();
+		}
+	}
+}
@@ -0,0 +1,56 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.workrecords.file;
+
+import org.opentdc.workrecords.TaggedWorkRecord;
+
+/**
+ * Defines how the {@link WorkRecordStore} keeps the published workrecords in memory.
+ * The store hands every workrecord it publishes to {@link #store(TaggedWorkRecord, long)} and keeps the result;
+ * TaggedWorkRecords are materialized from it whenever they are read.
+ */
+interface StorageEngine {
+	static final String ENGINE_OBJECT = "object";
+	static final String ENGINE_COLUMNAR = "columnar";
+
+	/**
+	 * Convert a workrecord into its stored form. The workrecord is not modified afterwards.
+	 * @param workRecord the workrecord to be published
+	 * @param version the version of the workrecord
+	 * @return the stored form
+	 */
+	StoredWorkRecord store(
+			TaggedWorkRecord workRecord,
+			long version);
+
+	/**
+	 * @return the estimated heap used by the structures shared by all stored workrecords (e.g. dictionaries), in bytes
+	 */
+	long sharedBytes();
+
+	/**
+	 * @return the name of the engine (ENGINE_OBJECT or ENGINE_COLUMNAR)
+	 */
+	String getName();
+}
@@ -0,0 +1,95 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.workrecords.file;
+
+import org.opentdc.workrecords.TaggedWorkRecord;
+
+/**
+ * A published workrecord in the form kept by a {@link StorageEngine}. Instances are immutable.
+ * Every published state of a workrecord carries a version number, which is incremented with every change
+ * (see {@link WorkRecordStore#replace(TaggedWorkRecord, TaggedWorkRecord, long)}).
+ */
+abstract class StoredWorkRecord {
+	// estimated sizes on a 64 bit JVM with compressed oops
+	static final int OBJECT_HEADER_BYTES = 12;
+	static final int REFERENCE_BYTES = 4;
+	static final int DATE_BYTES = 24;
+
+	private final long version;
+
+	/**
+	 * Constructor.
+	 * @param version the version of the workrecord
+	 */
+	StoredWorkRecord(
+			long version) {
+		this.version = version;
+	}
+
+	/**
+	 * @return the version of the workrecord
+	 */
+	long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return the id of the workrecord
+	 */
+	abstract String getId();
+
+	/**
+	 * The sort key of the workrecord besides its id, readable without materializing it (see {@link WorkRecordStore#SortedIndexComparator}).
+	 * @return the startAt of the workrecord in ms, Long.MIN_VALUE if it is not set
+	 */
+	abstract long getStartAt();
+
+	/**
+	 * @return the workrecord; it must not be modified (see {@link WorkRecordStore#copyOf(TaggedWorkRecord)})
+	 */
+	abstract TaggedWorkRecord materialize();
+
+	/**
+	 * @return the estimated heap used by this workrecord (without the shared structures of its engine), in bytes
+	 */
+	abstract long estimateBytes();
+
+	/**
+	 * @param bytes the size of an object or array
+	 * @return the size aligned to 8 bytes
+	 */
+	static long align(
+			long bytes) {
+		return (bytes + 7) & ~7L;
+	}
+
+	/**
+	 * @param s a string (may be null)
+	 * @return the estimated heap used by the string including its char array, in bytes
+	 */
+	static long stringBytes(
+			String s) {
+		return s == null ? 0 : align(OBJECT_HEADER_BYTES + REFERENCE_BYTES + 8) + align(16 + 2L * s.length());
+	}
+}
@@ -0,0 +1,98 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.workrecords.file;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Dictionary encoding of strings: each distinct string is stored once and referred to by an int code.
+ * Codes are never reused, i.e. a string stays in the dictionary for the life of the process: only values with
+ * few distinct values (ids of referenced objects, principals) may be encoded. Encoding is synchronized, decoding is lock-free.
+ */
+class StringDictionary {
+	static final int NULL_CODE = -1;
+	// ConcurrentHashMap node and Integer per entry, plus the slot in the strings array
+	private static final int ENTRY_BYTES = 32 + 16 + StoredWorkRecord.REFERENCE_BYTES;
+
+	private final ConcurrentMap<String, Integer> codes = new ConcurrentHashMap<String, Integer>();
+	private volatile String[] strings = new String[256];
+	private int size = 0;
+	private long bytes = 0;
+
+	/**
+	 * @param s a string (may be null)
+	 * @return the code of the string (NULL_CODE for null)
+	 */
+	int encode(
+			String s) {
+		if (s == null) {
+			return NULL_CODE;
+		}
+		Integer _code = codes.get(s);
+		if (_code != null) {
+			return _code;
+		}
+		synchronized (this) {
+			_code = codes.get(s);
+			if (_code != null) {
+				return _code;
+			}
+			String[] _strings = strings;
+			if (size == _strings.length) {
+				_strings = Arrays.copyOf(_strings, size * 2);
+			}
+			_strings[size] = s;
+			// the element is written before the (volatile) array is published and before the code can be used
+			strings = _strings;
+			codes.put(s, size);
+			bytes += ENTRY_BYTES + StoredWorkRecord.stringBytes(s);
+			return size++;
+		}
+	}
+
+	/**
+	 * @param code a code returned by {@link #encode(String)}
+	 * @return the string
+	 */
+	String decode(
+			int code) {
+		return code == NULL_CODE ? null : strings[code];
+	}
+
+	/**
+	 * @return the number of distinct strings
+	 */
+	synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * @return the estimated heap used by the dictionary, in bytes
+	 */
+	synchronized long estimateBytes() {
+		return bytes + StoredWorkRecord.align(16 + (long) strings.length * StoredWorkRecord.REFERENCE_BYTES);
+	}
+}
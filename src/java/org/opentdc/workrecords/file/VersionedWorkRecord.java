@@ -0,0 +1,63 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.workrecords.file;
+
+import org.opentdc.workrecords.WorkRecordModel;
+
+/**
+ * A workrecord together with the ETag of its version (see {@link FileServiceProvider#readVersionedWorkRecord(String)}).
+ */
+public class VersionedWorkRecord {
+	private WorkRecordModel workRecord = null;
+	private String etag = null;
+
+	public VersionedWorkRecord() {
+	}
+
+	public VersionedWorkRecord(
+			WorkRecordModel workRecord,
+			String etag) {
+		this.workRecord = workRecord;
+		this.etag = etag;
+	}
+
+	public WorkRecordModel getWorkRecord() {
+		return workRecord;
+	}
+
+	public void setWorkRecord(WorkRecordModel workRecord) {
+		this.workRecord = workRecord;
+	}
+
+	/**
+	 * @return the opaque version of the workrecord; pass it as ifMatch to a conditional update
+	 */
+	public String getEtag() {
+		return etag;
+	}
+
+	public void setEtag(String etag) {
+		this.etag = etag;
+	}
+}
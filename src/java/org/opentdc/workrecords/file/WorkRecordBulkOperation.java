@@ -0,0 +1,68 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.workrecords.file;
+
+import org.opentdc.workrecords.WorkRecordModel;
+
+/**
+ * One element of the JSON array read by {@link FileServiceProvider#bulkWorkRecords(javax.servlet.http.HttpServletRequest, java.io.Reader, java.io.Writer)}.
+ * <ul>
+ * <li><code>{"op":"create","workRecord":{...}}</code></li>
+ * <li><code>{"op":"update","id":"...","workRecord":{...}}</code></li>
+ * <li><code>{"op":"delete","id":"..."}</code></li>
+ * </ul>
+ */
+public class WorkRecordBulkOperation {
+	public static final String OP_CREATE = "create";
+	public static final String OP_UPDATE = "update";
+	public static final String OP_DELETE = "delete";
+
+	private String op;
+	private String id;
+	private WorkRecordModel workRecord;
+
+	public String getOp() {
+		return op;
+	}
+
+	public void setOp(String op) {
+		this.op = op;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public WorkRecordModel getWorkRecord() {
+		return workRecord;
+	}
+
+	public void setWorkRecord(WorkRecordModel workRecord) {
+		this.workRecord = workRecord;
+	}
+}
@@ -0,0 +1,104 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.workrecords.file;
+
+/**
+ * The result of one {@link WorkRecordBulkOperation}, written as one element of the JSON array
+ * returned by {@link FileServiceProvider#bulkWorkRecords(javax.servlet.http.HttpServletRequest, java.io.Reader, java.io.Writer)}.
+ */
+public class WorkRecordBulkResult {
+	public static final String STATUS_OK = "ok";
+	public static final String STATUS_FAILED = "failed";
+
+	private int index;
+	private String op;
+	private String id;
+	private String status;
+	private String message;
+
+	public WorkRecordBulkResult() {
+	}
+
+	public WorkRecordBulkResult(
+			int index,
+			String op,
+			String id,
+			String status,
+			String message) {
+		this.index = index;
+		this.op = op;
+		this.id = id;
+		this.status = status;
+		this.message = message;
+	}
+
+	/**
+	 * @return the position of the operation in the input array (starting at 0)
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	public void setIndex(int index) {
+		this.index = index;
+	}
+
+	public String getOp() {
+		return op;
+	}
+
+	public void setOp(String op) {
+		this.op = op;
+	}
+
+	/**
+	 * @return the id of the workrecord (generated for creates); null if it is not known
+	 */
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public String getStatus() {
+		return status;
+	}
+
+	public void setStatus(String status) {
+		this.status = status;
+	}
+
+	/**
+	 * @return the reason of a failure; null if the operation succeeded
+	 */
+	public String getMessage() {
+		return message;
+	}
+
+	public void setMessage(String message) {
+		this.message = message;
+	}
+}
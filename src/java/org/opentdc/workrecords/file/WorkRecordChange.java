@@ -0,0 +1,139 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.workrecords.file;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.opentdc.service.TagRefModel;
+import org.opentdc.workrecords.WorkRecordModel;
+
+/**
+ * One entry of the change feed (see {@link FileServiceProvider#listChanges(long, int)}).
+ */
+public class WorkRecordChange {
+	/** a workrecord was created or changed (including its tagRefs); workRecord and tagRefs contain its new state */
+	public static final String OP_PUT = "put";
+	/** a workrecord was deleted (tombstone) */
+	public static final String OP_DELETE = "delete";
+	/** a tagRef was deleted from a workrecord (tombstone) */
+	public static final String OP_DELETE_TAGREF = "deleteTagRef";
+
+	private long sequence;
+	private String op;
+	private String workRecordId;
+	private String tagRefId = null;
+	private WorkRecordModel workRecord = null;
+	private List<TagRefModel> tagRefs = null;
+	private Date changedAt;
+
+	public WorkRecordChange() {
+	}
+
+	public WorkRecordChange(
+			String op,
+			String workRecordId,
+			String tagRefId,
+			WorkRecordModel workRecord,
+			List<TagRefModel> tagRefs) {
+		this.op = op;
+		this.workRecordId = workRecordId;
+		this.tagRefId = tagRefId;
+		this.workRecord = workRecord;
+		this.tagRefs = tagRefs == null ? null : new ArrayList<TagRefModel>(tagRefs);
+		this.changedAt = new Date();
+	}
+
+	/**
+	 * @return the sequence number of the change; sequence numbers increase strictly with every change
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	public void setSequence(long sequence) {
+		this.sequence = sequence;
+	}
+
+	/**
+	 * @return OP_PUT, OP_DELETE or OP_DELETE_TAGREF
+	 */
+	public String getOp() {
+		return op;
+	}
+
+	public void setOp(String op) {
+		this.op = op;
+	}
+
+	public String getWorkRecordId() {
+		return workRecordId;
+	}
+
+	public void setWorkRecordId(String workRecordId) {
+		this.workRecordId = workRecordId;
+	}
+
+	/**
+	 * @return the id of the deleted tagRef (OP_DELETE_TAGREF); null otherwise
+	 */
+	public String getTagRefId() {
+		return tagRefId;
+	}
+
+	public void setTagRefId(String tagRefId) {
+		this.tagRefId = tagRefId;
+	}
+
+	/**
+	 * @return the new state of the workrecord (OP_PUT); null otherwise
+	 */
+	public WorkRecordModel getWorkRecord() {
+		return workRecord;
+	}
+
+	public void setWorkRecord(WorkRecordModel workRecord) {
+		this.workRecord = workRecord;
+	}
+
+	/**
+	 * @return the tagRefs of the workrecord (OP_PUT); null otherwise
+	 */
+	public List<TagRefModel> getTagRefs() {
+		return tagRefs;
+	}
+
+	public void setTagRefs(List<TagRefModel> tagRefs) {
+		this.tagRefs = tagRefs;
+	}
+
+	public Date getChangedAt() {
+		return changedAt;
+	}
+
+	public void setChangedAt(Date changedAt) {
+		this.changedAt = changedAt;
+	}
+}
@@ -0,0 +1,92 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.workrecords.file;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bounded in-memory feed of the most recent changes, kept in a ring buffer.
+ *
+ * Sequence numbers are assigned in the order of {@link #append(WorkRecordChange)}; callers append while holding 
+ * the lock of the changed workrecord, so that the order of the changes of one workrecord is preserved.
+ * The first sequence number of a run is derived from the start time (ms * 1000), so that the sequence numbers
+ * of a previous run (i.e. before a restart) are always older than the feed and lead to a resync.
+ */
+class WorkRecordChangeFeed {
+	private final WorkRecordChange[] ring;
+	private final long base;		// sequence number before the first change of this run
+	private long last;				// sequence number of the most recent change
+
+	/**
+	 * Constructor.
+	 * @param capacity the number of changes kept
+	 */
+	WorkRecordChangeFeed(
+			int capacity) {
+		this.ring = new WorkRecordChange[Math.max(1, capacity)];
+		this.base = System.currentTimeMillis() * 1000L;
+		this.last = base;
+	}
+
+	/**
+	 * Append a change and assign its sequence number.
+	 * @param change the change
+	 * @return the sequence number
+	 */
+	synchronized long append(
+			WorkRecordChange change) {
+		change.setSequence(++last);
+		ring[(int) (last % ring.length)] = change;
+		return last;
+	}
+
+	/**
+	 * @param since the sequence number of the last change the client has seen
+	 * @param size the maximal number of changes to return
+	 * @return the changes after <code>since</code>; resync is set if some of them are no longer available 
+	 * 	or <code>since</code> is unknown
+	 */
+	synchronized WorkRecordChanges since(
+			long since,
+			int size) {
+		long _oldest = Math.max(base + 1, last - ring.length + 1);
+		if (since < _oldest - 1 || since > last) {
+			return new WorkRecordChanges(new ArrayList<WorkRecordChange>(), last, true);
+		}
+		List<WorkRecordChange> _changes = new ArrayList<WorkRecordChange>();
+		long _seq = since + 1;
+		for (; _seq <= last && _changes.size() < size; _seq++) {
+			_changes.add(ring[(int) (_seq % ring.length)]);
+		}
+		return new WorkRecordChanges(_changes, _seq - 1, false);
+	}
+
+	/**
+	 * @return the sequence number of the most recent change
+	 */
+	synchronized long lastSequence() {
+		return last;
+	}
+}
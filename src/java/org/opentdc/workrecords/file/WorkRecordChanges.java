@@ -0,0 +1,82 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.workrecords.file;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A slice of the change feed together with the sequence number to continue from.
+ */
+public class WorkRecordChanges {
+	private List<WorkRecordChange> changes = new ArrayList<WorkRecordChange>();
+	private long lastSequence = 0;
+	private boolean resync = false;
+
+	public WorkRecordChanges() {
+	}
+
+	public WorkRecordChanges(
+			List<WorkRecordChange> changes,
+			long lastSequence,
+			boolean resync) {
+		this.changes = changes;
+		this.lastSequence = lastSequence;
+		this.resync = resync;
+	}
+
+	/**
+	 * @return the changes in the order of their sequence numbers
+	 */
+	public List<WorkRecordChange> getChanges() {
+		return changes;
+	}
+
+	public void setChanges(List<WorkRecordChange> changes) {
+		this.changes = changes;
+	}
+
+	/**
+	 * @return the sequence number to pass as <code>since</code> to the next call
+	 */
+	public long getLastSequence() {
+		return lastSequence;
+	}
+
+	public void setLastSequence(long lastSequence) {
+		this.lastSequence = lastSequence;
+	}
+
+	/**
+	 * @return true if the changes since the requested sequence number are no longer available (or it is unknown);
+	 * 	the client must reload all workrecords and then continue with lastSequence
+	 */
+	public boolean isResync() {
+		return resync;
+	}
+
+	public void setResync(boolean resync) {
+		this.resync = resync;
+	}
+}
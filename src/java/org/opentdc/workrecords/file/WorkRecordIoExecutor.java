@@ -0,0 +1,227 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.workrecords.file;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Executor of the operations of the {@link AsyncFileServiceProvider}.
+ *
+ * The operations run on virtual threads if the runtime supports them (Java 21 and later; detected by reflection, 
+ * so that the service still runs on Java 8) or on a bounded pool of daemon threads otherwise.
+ * Backpressure: at most maxPending operations are queued or running at any time. If an operation can not get a
+ * permit within the acquire timeout (0: do not wait), it is either rejected (its future completes with a
+ * RejectedExecutionException, e.g. to be answered with 503) or runs synchronously on the calling thread, which 
+ * slows down the caller instead of queueing more work. Either way, a slow disk can not tie up an unbounded number
+ * of request threads or queue entries.
+ */
+class WorkRecordIoExecutor {
+	static final String EXECUTOR_AUTO = "auto";
+	static final String EXECUTOR_VIRTUAL = "virtual";
+	static final String EXECUTOR_PLATFORM = "platform";
+	static final String BACKPRESSURE_REJECT = "reject";
+	static final String BACKPRESSURE_CALLER_RUNS = "callerRuns";
+
+	private static final Logger logger = Logger.getLogger(WorkRecordIoExecutor.class.getName());
+
+	private final ExecutorService executor;
+	private final boolean isVirtual;
+	private final int maxPending;
+	private final Semaphore permits;
+	private final long acquireTimeout;		// ms
+	private final boolean isCallerRuns;
+	private final AtomicLong rejected = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 * @param type {@link #EXECUTOR_AUTO}, {@link #EXECUTOR_VIRTUAL} or {@link #EXECUTOR_PLATFORM}
+	 * @param threads the number of platform threads (not used with virtual threads)
+	 * @param maxPending the maximal number of operations that are queued or running
+	 * @param backpressure {@link #BACKPRESSURE_REJECT} or {@link #BACKPRESSURE_CALLER_RUNS}
+	 * @param acquireTimeout the number of ms to wait for a permit before the backpressure applies
+	 */
+	WorkRecordIoExecutor(
+			String type,
+			int threads,
+			int maxPending,
+			String backpressure,
+			long acquireTimeout) {
+		ExecutorService _executor = null;
+		if (!EXECUTOR_PLATFORM.equalsIgnoreCase(type)) {
+			_executor = newVirtualThreadExecutor();
+			if (_executor == null && EXECUTOR_VIRTUAL.equalsIgnoreCase(type)) {
+				logger.warning("virtual threads are not supported by this runtime; using <" + threads + "> platform threads.");
+			}
+		}
+		this.isVirtual = _executor != null;
+		this.executor = isVirtual ? _executor : newPlatformThreadExecutor(threads);
+		this.maxPending = maxPending;
+		this.permits = new Semaphore(maxPending);
+		this.acquireTimeout = acquireTimeout;
+		this.isCallerRuns = BACKPRESSURE_CALLER_RUNS.equalsIgnoreCase(backpressure);
+		logger.info("WorkRecordIoExecutor(" + (isVirtual ? "virtual threads" : threads + " platform threads") 
+				+ ", maxPending=" + maxPending + ", backpressure=" + (isCallerRuns ? BACKPRESSURE_CALLER_RUNS : BACKPRESSURE_REJECT)
+				+ ", acquireTimeout=" + acquireTimeout + "ms)");
+	}
+
+	/**
+	 * @return an executor that starts a virtual thread per task, or null if the runtime does not support virtual threads
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method _factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) _factory.invoke(null);
+		}
+		catch (NoSuchMethodException _ex) {
+			return null;		// before Java 19
+		}
+		catch (ReflectiveOperationException _ex) {
+			// Java 19 and 20 throw an UnsupportedOperationException unless preview features are enabled
+			logger.info("virtual threads are not available: " + _ex);
+			return null;
+		}
+	}
+
+	private static ExecutorService newPlatformThreadExecutor(
+			int threads) {
+		final AtomicInteger _count = new AtomicInteger();
+		// the queue is bounded by the permits
+		ThreadPoolExecutor _executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, 
+			new LinkedBlockingQueue<Runnable>(), runnable -> {
+				Thread _thread = new Thread(runnable, "workrecords-io-" + _count.incrementAndGet());
+				_thread.setDaemon(true);
+				return _thread;
+			});
+		_executor.allowCoreThreadTimeOut(true);
+		return _executor;
+	}
+
+	/**
+	 * Run an operation asynchronously.
+	 * Dependent stages that are not *Async run on the thread that completes the operation.
+	 * @param operation the operation
+	 * @return the future result of the operation; completed exceptionally with the exception thrown by the operation,
+	 * or with a RejectedExecutionException if the operation was rejected by the backpressure or after {@link #shutdown()}
+	 */
+	<T> CompletableFuture<T> submit(
+			Supplier<T> operation) {
+		CompletableFuture<T> _future = new CompletableFuture<T>();
+		if (!acquire()) {
+			if (isCallerRuns) {
+				run(operation, _future);
+			} else {
+				rejected.incrementAndGet();
+				_future.completeExceptionally(new RejectedExecutionException("too many pending workrecord operations (maxPending=" 
+						+ maxPending + "); try again later."));
+			}
+			return _future;
+		}
+		try {
+			// the permit is released before the future completes, so that a caller that waits for the result
+			// can submit its next operation right away
+			executor.execute(() -> {
+				T _result;
+				try {
+					_result = operation.get();
+				}
+				catch (Throwable _ex) {
+					permits.release();
+					_future.completeExceptionally(_ex);
+					return;
+				}
+				permits.release();
+				_future.complete(_result);
+			});
+		}
+		catch (RejectedExecutionException _ex) {		// after shutdown()
+			permits.release();
+			_future.completeExceptionally(_ex);
+		}
+		return _future;
+	}
+
+	private boolean acquire() {
+		if (acquireTimeout <= 0) {
+			return permits.tryAcquire();
+		}
+		try {
+			return permits.tryAcquire(acquireTimeout, TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException _ex) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	private static <T> void run(
+			Supplier<T> operation,
+			CompletableFuture<T> future) {
+		try {
+			future.complete(operation.get());
+		}
+		catch (Throwable _ex) {
+			future.completeExceptionally(_ex);
+		}
+	}
+
+	/**
+	 * @return true if the operations run on virtual threads
+	 */
+	boolean isVirtual() {
+		return isVirtual;
+	}
+
+	/**
+	 * @return the number of operations that are queued or running
+	 */
+	int pending() {
+		return maxPending - permits.availablePermits();
+	}
+
+	/**
+	 * @return the number of operations rejected by the backpressure
+	 */
+	long rejected() {
+		return rejected.get();
+	}
+
+	/**
+	 * Stop accepting operations; running and queued operations are completed.
+	 */
+	void shutdown() {
+		executor.shutdown();
+	}
+}
@@ -0,0 +1,398 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.workrecords.file;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.logging.Logger;
+
+import org.opentdc.service.exception.InternalServerErrorException;
+import org.opentdc.workrecords.TaggedWorkRecord;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Append-only journal of work record mutations.
+ * Each mutation is written as one line of JSON (a full TaggedWorkRecord for a put, the id for a delete),
+ * so that the cost of persisting a single edit does not depend on the size of the data set.
+ * The journal is replayed on top of the snapshot (data.json) on startup; only an incomplete last line
+ * (a crash during an append) is tolerated, any other unreadable entry makes the replay fail.
+ *
+ * Compaction folds the journal back into the snapshot in two steps: {@link #rotate()} moves the current
+ * journal aside while no writer is active (i.e. exactly at the point where the snapshot is taken), and
+ * {@link #commitCompaction()} removes it once the snapshot is written. If the snapshot can not be written,
+ * the rotated journal is kept and replayed on startup; replaying it on top of a newer snapshot is harmless,
+ * because every entry carries the full state of its workrecord.
+ */
+class WorkRecordJournal {
+	static final String JOURNAL_FN = "data.journal";
+	static final String COMPACTING_SUFFIX = ".compacting";
+	static final String OP_PUT = "put";
+	static final String OP_DELETE = "delete";
+
+	private static final Logger logger = Logger.getLogger(WorkRecordJournal.class.getName());
+	// dates are written as ISO-8601 with milliseconds in UTC, so that a replayed workrecord equals the journaled one
+	private static final Gson gson = new GsonBuilder().registerTypeAdapter(Date.class, new DateAdapter()).create();
+
+	private final File journalF;
+	private final File compactingF;
+	private Writer writer = null;
+	private int entries = 0;
+
+	/**
+	 * One line of the journal.
+	 */
+	static class Entry {
+		String op;
+		String id;
+		TaggedWorkRecord record;
+	}
+
+	/**
+	 * Reads and writes dates independently of the default locale and without losing the milliseconds
+	 * (in the journal and in the JSON snapshots). Besides ISO-8601, ms since the epoch and the locale-dependent 
+	 * format of Gson (journals and snapshots written before the ISO format was introduced) are accepted.
+	 */
+	static class DateAdapter extends TypeAdapter<Date> {
+		private static final String ISO_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'";
+		private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+		@Override
+		public void write(JsonWriter out, Date date) throws IOException {
+			if (date == null) {
+				out.nullValue();
+			} else {
+				out.value(isoFormat().format(date));
+			}
+		}
+
+		@Override
+		public Date read(JsonReader in) throws IOException {
+			JsonToken _token = in.peek();
+			if (_token == JsonToken.NULL) {
+				in.nextNull();
+				return null;
+			}
+			if (_token == JsonToken.NUMBER) {
+				return new Date(in.nextLong());
+			}
+			String _value = in.nextString();
+			DateFormat[] _formats = {
+				isoFormat(),
+				DateFormat.getDateTimeInstance(DateFormat.DEFAULT, DateFormat.DEFAULT, Locale.US),
+				DateFormat.getDateTimeInstance(DateFormat.DEFAULT, DateFormat.DEFAULT)
+			};
+			for (DateFormat _format : _formats) {
+				try {
+					return _format.parse(_value);
+				}
+				catch (ParseException _ex) {
+					// try the next format
+				}
+			}
+			throw new JsonSyntaxException("date <" + _value + "> can not be parsed.");
+		}
+
+		private static DateFormat isoFormat() {
+			SimpleDateFormat _format = new SimpleDateFormat(ISO_FORMAT, Locale.ROOT);
+			_format.setTimeZone(UTC);
+			return _format;
+		}
+	}
+
+	/**
+	 * Constructor.
+	 * @param journalF the journal file; it is created on the first append if it does not exist
+	 */
+	WorkRecordJournal(File journalF) {
+		this.journalF = journalF;
+		this.compactingF = new File(journalF.getPath() + COMPACTING_SUFFIX);
+	}
+
+	/**
+	 * Apply all journal entries on top of a snapshot.
+	 * A truncated last line (e.g. from a crash during an append) is ignored and cut off.
+	 * @param snapshot the work records loaded from the snapshot
+	 * @return the work records after replaying the journal
+	 * @throws IOException if the journal can not be read or an entry before the last line is unreadable
+	 */
+	synchronized List<TaggedWorkRecord> replay(
+			List<TaggedWorkRecord> snapshot)
+			throws IOException {
+		Map<String, TaggedWorkRecord> _records = new LinkedHashMap<String, TaggedWorkRecord>();
+		for (TaggedWorkRecord _record : snapshot) {
+			_records.put(_record.getModel().getId(), _record);
+		}
+		// a journal left over from an interrupted compaction precedes the current journal
+		int _compacting = replay(compactingF, _records);
+		entries = _compacting + replay(journalF, _records);
+		logger.info("replay(" + journalF + ") -> " + entries + " journal entries applied to " + snapshot.size() + " workrecords.");
+		return new ArrayList<TaggedWorkRecord>(_records.values());
+	}
+
+	/**
+	 * Apply the entries of one journal file.
+	 * Only the last line may be unreadable (an append that was interrupted by a crash); it is cut off, so that
+	 * the next append starts on a new line. An unreadable entry before the last line is a corruption: the replay
+	 * fails rather than silently dropping a change.
+	 * @param f the journal file
+	 * @param records the work records by id; the entries are applied to it
+	 * @return the number of entries applied
+	 * @throws IOException if the journal can not be read or is corrupt
+	 */
+	private static int replay(
+			File f,
+			Map<String, TaggedWorkRecord> records)
+			throws IOException {
+		int _entries = 0;
+		if (!f.exists()) {
+			return 0;
+		}
+		long _validLength = 0;			// bytes up to the end of the last readable line
+		int _lineNumber = 0;
+		String _unreadable = null;		// the error of an unreadable line; tolerated only if it is the last one
+		BufferedReader _reader = new BufferedReader(new InputStreamReader(new FileInputStream(f), "UTF-8"));
+		try {
+			String _line;
+			while ((_line = _reader.readLine()) != null) {
+				_lineNumber++;
+				if (_line.isEmpty()) {
+					if (_unreadable == null) {
+						_validLength += 1;
+					}
+					continue;
+				}
+				if (_unreadable != null) {
+					throw new IOException("journal <" + f + "> is corrupt: " + _unreadable);
+				}
+				Entry _entry;
+				try {
+					_entry = gson.fromJson(_line, Entry.class);
+					if (_entry == null || (OP_PUT.equals(_entry.op) && _entry.record == null)) {
+						throw new JsonParseException("incomplete entry");
+					}
+				}
+				catch (JsonParseException _ex) {
+					_unreadable = "unreadable entry in line <" + _lineNumber + ">: " + _ex.getMessage();
+					continue;
+				}
+				if (OP_PUT.equals(_entry.op)) {
+					records.put(_entry.record.getModel().getId(), _entry.record);
+				} else if (OP_DELETE.equals(_entry.op)) {
+					records.remove(_entry.id);
+				}
+				_validLength += _line.getBytes("UTF-8").length + 1;
+				_entries++;
+			}
+		}
+		finally {
+			_reader.close();
+		}
+		if (_unreadable != null) {
+			logger.warning("ignoring the incomplete last entry of <" + f + "> (" + _unreadable + "); the journal is truncated to <" 
+					+ _validLength + "> bytes.");
+			RandomAccessFile _raf = new RandomAccessFile(f, "rw");
+			try {
+				_raf.setLength(_validLength);
+			}
+			finally {
+				_raf.close();
+			}
+		}
+		return _entries;
+	}
+
+	/**
+	 * Append the current state of a work record (including its tag refs).
+	 * @param record the work record
+	 * @param flush true to flush the journal, false if the caller calls {@link #flush()} later (batches)
+	 */
+	synchronized void appendPut(
+			TaggedWorkRecord record,
+			boolean flush) {
+		Entry _entry = new Entry();
+		_entry.op = OP_PUT;
+		_entry.record = record;
+		append(_entry, flush);
+	}
+
+	/**
+	 * Append the removal of a work record.
+	 * @param id the id of the removed work record
+	 * @param flush true to flush the journal, false if the caller calls {@link #flush()} later (batches)
+	 */
+	synchronized void appendDelete(
+			String id,
+			boolean flush) {
+		Entry _entry = new Entry();
+		_entry.op = OP_DELETE;
+		_entry.id = id;
+		append(_entry, flush);
+	}
+
+	private void append(
+			Entry entry,
+			boolean flush) {
+		try {
+			if (writer == null) {
+				writer = open(true);
+			}
+			writer.write(gson.toJson(entry));
+			writer.write('\n');
+			if (flush) {
+				writer.flush();
+			}
+			entries++;
+		}
+		catch (IOException _ex) {
+			throw new InternalServerErrorException("workrecord journal <" + journalF + "> can not be written: " + _ex.getMessage());
+		}
+	}
+
+	/**
+	 * Flush the entries appended without flushing.
+	 */
+	synchronized void flush() {
+		try {
+			if (writer != null) {
+				writer.flush();
+			}
+		}
+		catch (IOException _ex) {
+			throw new InternalServerErrorException("workrecord journal <" + journalF + "> can not be written: " + _ex.getMessage());
+		}
+	}
+
+	/**
+	 * @return the number of entries written since the last compaction
+	 */
+	synchronized int size() {
+		return entries;
+	}
+
+	/**
+	 * First step of a compaction: move the current journal aside and start a new one.
+	 * Must be called while no writer is active, i.e. at the point where the snapshot is taken.
+	 * If a rotated journal from a failed compaction still exists, the current journal is appended to it.
+	 */
+	synchronized void rotate() {
+		try {
+			close();
+			if (!journalF.exists()) {
+				return;
+			}
+			if (compactingF.exists()) {
+				appendTo(journalF, compactingF);
+				if (!journalF.delete()) {
+					throw new IOException("can not delete <" + journalF + ">");
+				}
+			}
+			else if (!journalF.renameTo(compactingF)) {
+				throw new IOException("can not rename <" + journalF + "> to <" + compactingF + ">");
+			}
+			logger.info("rotate(" + journalF + ") -> " + entries + " journal entries to be folded into the snapshot.");
+			entries = 0;
+		}
+		catch (IOException _ex) {
+			throw new InternalServerErrorException("workrecord journal <" + journalF + "> can not be rotated: " + _ex.getMessage());
+		}
+	}
+
+	/**
+	 * Second step of a compaction: the snapshot was written successfully; remove the rotated journal.
+	 */
+	synchronized void commitCompaction() {
+		if (compactingF.exists() && !compactingF.delete()) {
+			logger.warning("rotated journal <" + compactingF + "> can not be deleted; it will be replayed again on startup.");
+		}
+	}
+
+	private static void appendTo(
+			File from,
+			File to)
+			throws IOException {
+		InputStream _in = new FileInputStream(from);
+		try {
+			OutputStream _out = new FileOutputStream(to, true);
+			try {
+				byte[] _buf = new byte[8192];
+				int _len;
+				while ((_len = _in.read(_buf)) > 0) {
+					_out.write(_buf, 0, _len);
+				}
+			}
+			finally {
+				_out.close();
+			}
+		}
+		finally {
+			_in.close();
+		}
+	}
+
+	/**
+	 * Close the underlying file.
+	 * @throws IOException
+	 */
+	synchronized void close()
+			throws IOException {
+		if (writer != null) {
+			writer.close();
+			writer = null;
+		}
+	}
+
+	private Writer open(
+			boolean append)
+			throws IOException {
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journalF, append), "UTF-8"));
+	}
+}
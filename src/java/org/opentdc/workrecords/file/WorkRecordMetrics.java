@@ -0,0 +1,409 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.workrecords.file;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metrics of the file service provider: latency histograms per operation and per reference lookup,
+ * the time and size of snapshot exports and imports, the number of workrecords scanned and matched by queries,
+ * and gauges for the index sizes and the persistence backlog.
+ *
+ * Recording does not allocate: the histograms have one AtomicLongArray bucket per power of two nanoseconds.
+ * A disabled instance (init parameter metricsEnabled=false) records nothing and does not read the clock.
+ * The metrics are registered as an MXBean under {@link #OBJECT_NAME}; other exporters can poll {@link #snapshot()}.
+ */
+class WorkRecordMetrics implements WorkRecordMetricsMXBean {
+	static final String OBJECT_NAME = "org.opentdc.workrecords:type=FileServiceProvider,name=metrics";
+
+	// operations
+	static final int OP_LIST = 0;
+	static final int OP_LIST_PAGE = 1;
+	static final int OP_LIST_BY_TAG = 2;
+	static final int OP_AGGREGATE = 3;
+	static final int OP_LIST_CHANGES = 4;
+	static final int OP_CREATE = 5;
+	static final int OP_READ = 6;
+	static final int OP_UPDATE = 7;
+	static final int OP_DELETE = 8;
+	static final int OP_BULK = 9;
+	static final int OP_LIST_TAGREFS = 10;
+	static final int OP_CREATE_TAGREF = 11;
+	static final int OP_READ_TAGREF = 12;
+	static final int OP_DELETE_TAGREF = 13;
+	static final int OP_ADD_TAGS = 14;
+	private static final String[] OPERATIONS = {
+		"listWorkRecords", "listWorkRecordsPage", "listWorkRecordsByTag", "aggregateWorkRecords", "listChanges",
+		"createWorkRecord", "readWorkRecord", "updateWorkRecord", "deleteWorkRecord", "bulkWorkRecords",
+		"listTagRefs", "createTagRef", "readTagRef", "deleteTagRef", "addTags"
+	};
+
+	// reference (foreign key) lookups
+	static final int LOOKUP_COMPANY = 0;
+	static final int LOOKUP_PROJECT = 1;
+	static final int LOOKUP_RESOURCE = 2;
+	private static final String[] LOOKUPS = { "company", "project", "resource" };
+
+	private static final Logger logger = Logger.getLogger(WorkRecordMetrics.class.getName());
+
+	private final boolean enabled;
+	private final Histogram[] operations = new Histogram[OPERATIONS.length];
+	private final Histogram[] lookups = new Histogram[LOOKUPS.length];
+	private final Histogram exports = new Histogram();
+	private final Histogram imports = new Histogram();
+	private final AtomicLong exportBytes = new AtomicLong();
+	private final AtomicLong lastExportBytes = new AtomicLong();
+	private final AtomicLong importBytes = new AtomicLong();
+	private final AtomicLong queries = new AtomicLong();
+	private final AtomicLong scanned = new AtomicLong();
+	private final AtomicLong matched = new AtomicLong();
+	// sources of the gauges (set once the provider is initialized)
+	private volatile WorkRecordStore store = null;
+	private volatile SnapshotWriter snapshotWriter = null;
+	private volatile WorkRecordJournal journal = null;
+	private volatile WorkRecordPartitions partitions = null;
+	private volatile CachingReferenceResolver referenceCache = null;
+	private ObjectName objectName = null;
+
+	/**
+	 * Constructor.
+	 * @param enabled false to record nothing
+	 */
+	WorkRecordMetrics(
+			boolean enabled) {
+		this.enabled = enabled;
+		for (int i = 0; i < operations.length; i++) {
+			operations[i] = new Histogram();
+		}
+		for (int i = 0; i < lookups.length; i++) {
+			lookups[i] = new Histogram();
+		}
+	}
+
+	boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Set the sources of the gauges.
+	 * @param store the store (index sizes)
+	 * @param snapshotWriter the snapshot writer (pending changes)
+	 * @param journal the journal (may be null)
+	 * @param partitions the partitions (may be null)
+	 * @param referenceResolver the resolver of references (cache counters if it is a {@link CachingReferenceResolver})
+	 */
+	void attach(
+			WorkRecordStore store,
+			SnapshotWriter snapshotWriter,
+			WorkRecordJournal journal,
+			WorkRecordPartitions partitions,
+			ReferenceResolver referenceResolver) {
+		this.store = store;
+		this.snapshotWriter = snapshotWriter;
+		this.journal = journal;
+		this.partitions = partitions;
+		this.referenceCache = referenceResolver instanceof CachingReferenceResolver ? (CachingReferenceResolver) referenceResolver : null;
+	}
+
+	/**
+	 * Register the MXBean with the platform MBean server (unless disabled); a previous registration is replaced.
+	 */
+	synchronized void register() {
+		if (!enabled) {
+			return;
+		}
+		try {
+			MBeanServer _server = ManagementFactory.getPlatformMBeanServer();
+			objectName = new ObjectName(OBJECT_NAME);
+			if (_server.isRegistered(objectName)) {
+				_server.unregisterMBean(objectName);
+			}
+			_server.registerMBean(this, objectName);
+		}
+		catch (JMException _ex) {
+			logger.warning("metrics can not be registered as <" + OBJECT_NAME + ">: " + _ex.getMessage());
+			objectName = null;
+		}
+	}
+
+	/**
+	 * Unregister the MXBean.
+	 */
+	synchronized void unregister() {
+		if (objectName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			}
+			catch (JMException _ex) {
+				// not registered (anymore)
+			}
+			objectName = null;
+		}
+	}
+
+	/**
+	 * @return the start time to pass to one of the record methods, or 0 if disabled
+	 */
+	long start() {
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Record the latency of an operation.
+	 * @param operation one of the OP_ constants
+	 * @param start the value returned by {@link #start()}
+	 */
+	void recordOperation(
+			int operation,
+			long start) {
+		if (enabled) {
+			operations[operation].record(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Record the latency of a reference lookup.
+	 * @param lookup one of the LOOKUP_ constants
+	 * @param start the value returned by {@link #start()}
+	 */
+	void recordLookup(
+			int lookup,
+			long start) {
+		if (enabled) {
+			lookups[lookup].record(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Record the evaluation of a query.
+	 * @param scannedCount the number of candidates evaluated
+	 * @param matchedCount the number of candidates that matched
+	 */
+	void recordQuery(
+			long scannedCount,
+			long matchedCount) {
+		if (enabled) {
+			queries.incrementAndGet();
+			scanned.addAndGet(scannedCount);
+			matched.addAndGet(matchedCount);
+		}
+	}
+
+	/**
+	 * Record a snapshot export (a full snapshot or the dirty partitions).
+	 * @param start the value returned by {@link #start()}
+	 * @param bytes the number of bytes written
+	 */
+	void recordExport(
+			long start,
+			long bytes) {
+		if (enabled) {
+			exports.record(System.nanoTime() - start);
+			exportBytes.addAndGet(bytes);
+			lastExportBytes.set(bytes);
+		}
+	}
+
+	/**
+	 * Record a snapshot import (on startup, or a partition loaded lazily).
+	 * @param start the value returned by {@link #start()}
+	 * @param bytes the number of bytes read
+	 */
+	void recordImport(
+			long start,
+			long bytes) {
+		if (enabled) {
+			imports.record(System.nanoTime() - start);
+			importBytes.addAndGet(bytes);
+		}
+	}
+
+	/**
+	 * @return all metrics by name; latencies are in microseconds, percentiles are the upper bounds of their buckets
+	 */
+	Map<String, Long> snapshot() {
+		Map<String, Long> _metrics = new TreeMap<String, Long>();
+		for (int i = 0; i < operations.length; i++) {
+			operations[i].addTo(_metrics, "operation." + OPERATIONS[i]);
+		}
+		for (int i = 0; i < lookups.length; i++) {
+			lookups[i].addTo(_metrics, "lookup." + LOOKUPS[i]);
+		}
+		exports.addTo(_metrics, "export");
+		_metrics.put("export.bytes", exportBytes.get());
+		_metrics.put("export.lastBytes", lastExportBytes.get());
+		imports.addTo(_metrics, "import");
+		_metrics.put("import.bytes", importBytes.get());
+		_metrics.put("query.count", queries.get());
+		_metrics.put("query.scanned", scanned.get());
+		_metrics.put("query.matched", matched.get());
+		_metrics.put("index.workRecords", getWorkRecordCount());
+		_metrics.put("index.tagRefs", getTagRefCount());
+		_metrics.put("persistence.pendingSnapshotChanges", getPendingSnapshotChanges());
+		WorkRecordJournal _journal = journal;
+		if (_journal != null) {
+			_metrics.put("persistence.journalEntries", (long) _journal.size());
+		}
+		WorkRecordPartitions _partitions = partitions;
+		if (_partitions != null) {
+			_metrics.put("partitions.count", (long) _partitions.size());
+			_metrics.put("partitions.loaded", (long) _partitions.loadedSize());
+		}
+		CachingReferenceResolver _referenceCache = referenceCache;
+		if (_referenceCache != null) {
+			addTo(_metrics, _referenceCache.getCompanyCache());
+			addTo(_metrics, _referenceCache.getProjectCache());
+			addTo(_metrics, _referenceCache.getResourceCache());
+		}
+		return _metrics;
+	}
+
+	private static void addTo(
+			Map<String, Long> metrics,
+			CachingReferenceResolver.Cache<?> cache) {
+		String _prefix = "referenceCache." + cache.getName();
+		metrics.put(_prefix + ".size", (long) cache.size());
+		metrics.put(_prefix + ".hits", cache.getHits());
+		metrics.put(_prefix + ".misses", cache.getMisses());
+		metrics.put(_prefix + ".evictions", cache.getEvictions());
+	}
+
+	@Override
+	public Map<String, Long> getMetrics() {
+		return snapshot();
+	}
+
+	@Override
+	public long getWorkRecordCount() {
+		WorkRecordStore _store = store;
+		return _store == null ? 0 : _store.size();
+	}
+
+	@Override
+	public long getTagRefCount() {
+		WorkRecordStore _store = store;
+		return _store == null ? 0 : _store.tagRefCount();
+	}
+
+	@Override
+	public long getPendingSnapshotChanges() {
+		SnapshotWriter _snapshotWriter = snapshotWriter;
+		return _snapshotWriter == null ? 0 : _snapshotWriter.pendingChanges();
+	}
+
+	@Override
+	public void reset() {
+		for (Histogram _histogram : operations) {
+			_histogram.reset();
+		}
+		for (Histogram _histogram : lookups) {
+			_histogram.reset();
+		}
+		exports.reset();
+		imports.reset();
+		exportBytes.set(0);
+		lastExportBytes.set(0);
+		importBytes.set(0);
+		queries.set(0);
+		scanned.set(0);
+		matched.set(0);
+	}
+
+	/**
+	 * Latency histogram with one bucket per power of two: bucket i counts the latencies in [2^i, 2^(i+1)) ns.
+	 * The buckets are updated independently, so a snapshot taken during a recording may be off by one.
+	 */
+	static class Histogram {
+		private static final double[] PERCENTILES = { 0.5, 0.9, 0.99 };
+		private static final String[] PERCENTILE_NAMES = { "p50Micros", "p90Micros", "p99Micros" };
+
+		private final AtomicLongArray buckets = new AtomicLongArray(64);
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong totalNanos = new AtomicLong();
+		private final AtomicLong maxNanos = new AtomicLong();
+
+		void record(
+				long nanos) {
+			long _nanos = Math.max(1, nanos);
+			buckets.incrementAndGet(63 - Long.numberOfLeadingZeros(_nanos));
+			count.incrementAndGet();
+			totalNanos.addAndGet(_nanos);
+			long _max = maxNanos.get();
+			while (_nanos > _max && !maxNanos.compareAndSet(_max, _nanos)) {
+				_max = maxNanos.get();
+			}
+		}
+
+		/**
+		 * @param p the percentile (0 < p <= 1)
+		 * @return the upper bound of the bucket that contains the percentile, in ns; 0 if nothing was recorded
+		 */
+		long percentile(
+				double p) {
+			long _count = 0;
+			for (int i = 0; i < buckets.length(); i++) {
+				_count += buckets.get(i);
+			}
+			long _rank = (long) Math.ceil(p * _count);
+			long _seen = 0;
+			for (int i = 0; i < buckets.length() && _count > 0; i++) {
+				_seen += buckets.get(i);
+				if (_seen >= _rank) {
+					return i == 62 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+				}
+			}
+			return 0;
+		}
+
+		void addTo(
+				Map<String, Long> metrics,
+				String prefix) {
+			long _count = count.get();
+			metrics.put(prefix + ".count", _count);
+			metrics.put(prefix + ".meanMicros", _count == 0 ? 0 : totalNanos.get() / _count / 1000);
+			metrics.put(prefix + ".maxMicros", maxNanos.get() / 1000);
+			for (int i = 0; i < PERCENTILES.length; i++) {
+				metrics.put(prefix + "." + PERCENTILE_NAMES[i], percentile(PERCENTILES[i]) / 1000);
+			}
+		}
+
+		void reset() {
+			for (int i = 0; i < buckets.length(); i++) {
+				buckets.set(i, 0);
+			}
+			count.set(0);
+			totalNanos.set(0);
+			maxNanos.set(0);
+		}
+	}
+}
@@ -0,0 +1,56 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.workrecords.file;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link WorkRecordMetrics} of the workrecords service.
+ */
+public interface WorkRecordMetricsMXBean {
+	/**
+	 * @return all metrics by name (see {@link WorkRecordMetrics#snapshot()})
+	 */
+	Map<String, Long> getMetrics();
+
+	/**
+	 * @return the number of workrecords in the index
+	 */
+	long getWorkRecordCount();
+
+	/**
+	 * @return the number of tagRefs in the tagRefIndex
+	 */
+	long getTagRefCount();
+
+	/**
+	 * @return the number of changes not yet written to the snapshot
+	 */
+	long getPendingSnapshotChanges();
+
+	/**
+	 * Reset all counters and histograms.
+	 */
+	void reset();
+}
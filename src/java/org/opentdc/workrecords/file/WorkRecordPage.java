@@ -0,0 +1,66 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.workrecords.file;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opentdc.workrecords.WorkRecordModel;
+
+/**
+ * One page of workrecords together with the cursor to the next page.
+ */
+public class WorkRecordPage {
+	private List<WorkRecordModel> workRecords = new ArrayList<WorkRecordModel>();
+	private String nextCursor = null;
+
+	public WorkRecordPage() {
+	}
+
+	public WorkRecordPage(
+			List<WorkRecordModel> workRecords,
+			String nextCursor) {
+		this.workRecords = workRecords;
+		this.nextCursor = nextCursor;
+	}
+
+	public List<WorkRecordModel> getWorkRecords() {
+		return workRecords;
+	}
+
+	public void setWorkRecords(List<WorkRecordModel> workRecords) {
+		this.workRecords = workRecords;
+	}
+
+	/**
+	 * @return the opaque cursor to pass to the next call, or null if there are no more workrecords
+	 */
+	public String getNextCursor() {
+		return nextCursor;
+	}
+
+	public void setNextCursor(String nextCursor) {
+		this.nextCursor = nextCursor;
+	}
+}
@@ -0,0 +1,458 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.workrecords.file;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+import org.opentdc.service.exception.InternalServerErrorException;
+import org.opentdc.workrecords.TaggedWorkRecord;
+import org.opentdc.workrecords.WorkRecordModel;
+
+/**
+ * Partitioned snapshot: the workrecords are split by the month of startAt ({@link #SCHEME_MONTH})
+ * or by company ({@link #SCHEME_COMPANY}) into one snapshot file per partition, e.g. partitions-month/2015-07.json.
+ *
+ * Next to each partition file, the ids of its workrecords are kept in a small manifest file (e.g. 2015-07.ids).
+ * On startup, only the manifests and the active partitions are read: for SCHEME_MONTH, the partitions of the last
+ * activeMonths months; for SCHEME_COMPANY, the partitions written during the last activeMonths months.
+ * The other partitions are loaded into the store the first time they are needed, i.e. when a workrecord is looked up
+ * by id ({@link #loadFor(String)}) or a query touches them ({@link #loadFor(WorkRecordQueryPlan)}).
+ *
+ * Changes mark the partitions of the old and the new state of a workrecord as dirty; {@link #writeDirty()} rewrites
+ * only these. A partition is always loaded before it is marked dirty, so that a partition file is never rewritten
+ * with a part of its workrecords. Each file is written atomically (see {@link SnapshotWriter}).
+ * The partition key is derived from the workrecord alone, so two companies whose ids map to the same file name 
+ * simply share a partition.
+ */
+class WorkRecordPartitions {
+	static final String SCHEME_MONTH = "month";
+	static final String SCHEME_COMPANY = "company";
+	static final String DIR_PREFIX = "partitions-";
+	static final String IDS_SUFFIX = ".ids";
+	static final String JSON_SUFFIX = ".json";
+	static final String BIN_SUFFIX = ".bin";
+	// partition of the workrecords without startAt (SCHEME_MONTH) or companyId (SCHEME_COMPANY); always active
+	static final String NO_KEY = "none";
+	private static final long MONTH = 31L * 24L * 60L * 60L * 1000L;
+
+	private static final Logger logger = Logger.getLogger(WorkRecordPartitions.class.getName());
+
+	private final File dir;
+	private final String scheme;
+	private final String format;
+	private final WorkRecordStore store;
+	private final TimeZone timeZone;
+	private final int activeMonths;
+	private final WorkRecordMetrics metrics;
+	// the manifest: id -> partition key, and partition key -> ids
+	private final ConcurrentMap<String, String> partitionOf = new ConcurrentHashMap<String, String>();
+	private final ConcurrentMap<String, Set<String>> members = new ConcurrentHashMap<String, Set<String>>();
+	private final Set<String> loaded = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private final Object loadLock = new Object();
+	// guarded by this
+	private Set<String> dirty = new HashSet<String>();
+
+	/**
+	 * Constructor.
+	 * @param dataDir the directory of the service; the partitions are kept in a subdirectory per scheme
+	 * @param scheme SCHEME_MONTH or SCHEME_COMPANY
+	 * @param format the format of the partition files (SnapshotWriter.FORMAT_JSON or FORMAT_BINARY)
+	 * @param store the store the partitions are loaded into
+	 * @param timeZone the time zone of the months
+	 * @param activeMonths the number of months whose partitions are loaded on startup
+	 * @param metrics records the time and size of the reads
+	 */
+	WorkRecordPartitions(
+			File dataDir,
+			String scheme,
+			String format,
+			WorkRecordStore store,
+			TimeZone timeZone,
+			int activeMonths,
+			WorkRecordMetrics metrics) {
+		this.dir = new File(dataDir, DIR_PREFIX + scheme);
+		this.scheme = scheme;
+		this.format = format;
+		this.store = store;
+		this.timeZone = timeZone;
+		this.activeMonths = Math.max(1, activeMonths);
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @return the directory of the partition files
+	 */
+	File getDirectory() {
+		return dir;
+	}
+
+	/**
+	 * Read the manifests and the active partitions.
+	 * @return the workrecords of the active partitions, or null if there are no partitions yet (see {@link #migrate(List)})
+	 * @throws IOException if a partition can not be read
+	 */
+	List<TaggedWorkRecord> open()
+			throws IOException {
+		File[] _idsFiles = dir.listFiles();
+		if (_idsFiles == null) {
+			return null;
+		}
+		long _start = System.currentTimeMillis();
+		for (File _f : _idsFiles) {
+			String _name = _f.getName();
+			if (!_name.endsWith(IDS_SUFFIX)) {
+				continue;
+			}
+			String _key = _name.substring(0, _name.length() - IDS_SUFFIX.length());
+			Set<String> _ids = members(_key);
+			BufferedReader _reader = new BufferedReader(new InputStreamReader(new FileInputStream(_f), "UTF-8"));
+			try {
+				String _id;
+				while ((_id = _reader.readLine()) != null) {
+					if (!_id.isEmpty()) {
+						partitionOf.put(_id, _key);
+						_ids.add(_id);
+					}
+				}
+			}
+			finally {
+				_reader.close();
+			}
+		}
+		if (members.isEmpty()) {
+			return null;
+		}
+		List<TaggedWorkRecord> _workRecords = new ArrayList<TaggedWorkRecord>();
+		String _firstActiveMonth = monthKey(monthsAgo(activeMonths - 1));
+		for (String _key : members.keySet()) {
+			boolean _isActive = _key.equals(NO_KEY) || (scheme.equals(SCHEME_MONTH) 
+					? _key.compareTo(_firstActiveMonth) >= 0
+					: dataFile(_key).lastModified() >= System.currentTimeMillis() - activeMonths * MONTH);
+			if (_isActive) {
+				_workRecords.addAll(read(_key));
+				loaded.add(_key);
+			}
+		}
+		logger.info("open(" + dir + ") -> " + members.size() + " partitions with " + partitionOf.size() + " workrecords, "
+				+ loaded.size() + " active partitions with " + _workRecords.size() + " workrecords read in " 
+				+ (System.currentTimeMillis() - _start) + " ms.");
+		return _workRecords;
+	}
+
+	/**
+	 * Split workrecords read from a single snapshot (data.json or data.bin) into partitions; all partitions are 
+	 * marked dirty, so that they are written by the next {@link #writeDirty()}.
+	 * @param workRecords the workrecords
+	 */
+	void migrate(
+			List<TaggedWorkRecord> workRecords) {
+		for (TaggedWorkRecord _workRecord : workRecords) {
+			String _key = key(_workRecord.getModel());
+			partitionOf.put(_workRecord.getModel().getId(), _key);
+			members(_key).add(_workRecord.getModel().getId());
+		}
+		loaded.addAll(members.keySet());
+		synchronized (this) {
+			dirty.addAll(members.keySet());
+		}
+		logger.info("migrate(" + dir + ") -> " + workRecords.size() + " workrecords split into " + members.size() + " partitions.");
+	}
+
+	/**
+	 * Load the partition of a workrecord unless it is loaded already.
+	 * @param id the id of the workrecord
+	 */
+	void loadFor(
+			String id) {
+		String _key = partitionOf.get(id);
+		if (_key != null) {
+			load(_key);
+		}
+	}
+
+	/**
+	 * Load all partitions that may contain candidates of a query.
+	 * @param plan the indexable part of the query
+	 */
+	void loadFor(
+			WorkRecordQueryPlan plan) {
+		if (scheme.equals(SCHEME_MONTH) && plan.hasStartAtRange()) {
+			String _from = plan.startFrom == Long.MIN_VALUE ? "" : monthKey(new Date(plan.startFrom));
+			String _to = plan.startTo == Long.MAX_VALUE ? null : monthKey(new Date(plan.startTo));
+			for (String _key : members.keySet()) {
+				if (!_key.equals(NO_KEY) && _key.compareTo(_from) >= 0 && (_to == null || _key.compareTo(_to) <= 0)) {
+					load(_key);
+				}
+			}
+		} else if (scheme.equals(SCHEME_COMPANY) && plan.companyId != null) {
+			load(companyKey(plan.companyId));
+		} else {
+			loadAll();
+		}
+	}
+
+	/**
+	 * Load all partitions that are not loaded yet.
+	 */
+	void loadAll() {
+		if (loaded.size() < members.size()) {
+			for (String _key : members.keySet()) {
+				load(_key);
+			}
+		}
+	}
+
+	private void load(
+			String key) {
+		if (loaded.contains(key)) {
+			return;
+		}
+		synchronized (loadLock) {
+			if (loaded.contains(key)) {
+				return;
+			}
+			long _start = System.currentTimeMillis();
+			try {
+				List<TaggedWorkRecord> _workRecords = read(key);
+				int _added = store.attach(_workRecords);
+				loaded.add(key);
+				logger.info("load(" + key + ") -> " + _added + " workrecords loaded in " + (System.currentTimeMillis() - _start) + " ms.");
+			}
+			catch (IOException _ex) {
+				throw new InternalServerErrorException("workrecord partition <" + dataFile(key) + "> can not be read: " + _ex.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Register the new state of a workrecord: its old and its new partition are marked dirty.
+	 * Must be called while holding the lock of the workrecord, after the workrecord was published.
+	 * @param model the workrecord
+	 */
+	void put(
+			WorkRecordModel model) {
+		String _key = key(model);
+		load(_key);
+		String _old = partitionOf.put(model.getId(), _key);
+		if (_old != null && !_old.equals(_key)) {
+			members(_old).remove(model.getId());
+			markDirty(_old);
+		}
+		members(_key).add(model.getId());
+		markDirty(_key);
+	}
+
+	/**
+	 * Register the removal of a workrecord: its partition is marked dirty.
+	 * Must be called while holding the lock of the workrecord.
+	 * @param id the id of the workrecord
+	 */
+	void remove(
+			String id) {
+		String _old = partitionOf.remove(id);
+		if (_old != null) {
+			members(_old).remove(id);
+			markDirty(_old);
+		}
+	}
+
+	private synchronized void markDirty(
+			String key) {
+		dirty.add(key);
+	}
+
+	/**
+	 * Rewrite the partitions that were changed since the last call.
+	 * A workrecord that moved to another partition concurrently is skipped; its partitions are dirty again.
+	 * @return the number of bytes written
+	 * @throws InternalServerErrorException if a partition can not be written; it stays dirty
+	 */
+	long writeDirty() {
+		Set<String> _dirty;
+		synchronized (this) {
+			_dirty = new TreeSet<String>(dirty);
+			dirty = new HashSet<String>();
+		}
+		if (_dirty.isEmpty()) {
+			return 0;
+		}
+		dir.mkdirs();
+		int _written = 0;
+		long _bytes = 0;
+		for (String _key : _dirty) {
+			List<TaggedWorkRecord> _workRecords = new ArrayList<TaggedWorkRecord>();
+			for (String _id : members(_key)) {
+				TaggedWorkRecord _workRecord = store.get(_id);
+				if (_workRecord != null && key(_workRecord.getModel()).equals(_key)) {
+					_workRecords.add(_workRecord);
+				}
+			}
+			try {
+				File _dataF = new File(dir, _key + (format.equals(SnapshotWriter.FORMAT_BINARY) ? BIN_SUFFIX : JSON_SUFFIX));
+				SnapshotWriter.writeAtomically(_workRecords, _dataF, new File(_dataF.getPath() + SnapshotWriter.TMP_SUFFIX), format);
+				writeIds(_key, _workRecords);
+				_written++;
+				_bytes += _dataF.length();
+			}
+			catch (IOException _ex) {
+				synchronized (this) {
+					dirty.addAll(_dirty);
+				}
+				throw new InternalServerErrorException("workrecord partition <" + _key + "> in <" + dir + "> can not be written: " + _ex.getMessage());
+			}
+		}
+		logger.fine("writeDirty(" + dir + ") -> " + _written + " of " + members.size() + " partitions written.");
+		return _bytes;
+	}
+
+	private void writeIds(
+			String key,
+			List<TaggedWorkRecord> workRecords)
+			throws IOException {
+		File _idsF = new File(dir, key + IDS_SUFFIX);
+		File _tmpF = new File(_idsF.getPath() + SnapshotWriter.TMP_SUFFIX);
+		FileOutputStream _out = new FileOutputStream(_tmpF);
+		try {
+			Writer _writer = new BufferedWriter(new OutputStreamWriter(_out, "UTF-8"));
+			for (TaggedWorkRecord _workRecord : workRecords) {
+				_writer.write(_workRecord.getModel().getId());
+				_writer.write('\n');
+			}
+			_writer.flush();
+			_out.getFD().sync();
+		}
+		finally {
+			_out.close();
+		}
+		SnapshotWriter.moveAtomically(_tmpF, _idsF);
+	}
+
+	/**
+	 * Read a partition file; if the snapshot format was changed, the file in the previous format is read.
+	 * @param key the partition key
+	 * @return the workrecords of the partition
+	 * @throws IOException
+	 */
+	private List<TaggedWorkRecord> read(
+			String key)
+			throws IOException {
+		File _f = dataFile(key);
+		if (!_f.exists()) {
+			return new ArrayList<TaggedWorkRecord>();
+		}
+		long _start = metrics.start();
+		List<TaggedWorkRecord> _workRecords = SnapshotWriter.read(_f, _f.getName().endsWith(BIN_SUFFIX) ? SnapshotWriter.FORMAT_BINARY : SnapshotWriter.FORMAT_JSON);
+		metrics.recordImport(_start, _f.length());
+		return _workRecords;
+	}
+
+	private File dataFile(
+			String key) {
+		File _binF = new File(dir, key + BIN_SUFFIX);
+		File _jsonF = new File(dir, key + JSON_SUFFIX);
+		if (format.equals(SnapshotWriter.FORMAT_BINARY)) {
+			return _binF.exists() || !_jsonF.exists() ? _binF : _jsonF;
+		}
+		return _jsonF.exists() || !_binF.exists() ? _jsonF : _binF;
+	}
+
+	private Set<String> members(
+			String key) {
+		Set<String> _ids = members.get(key);
+		if (_ids == null) {
+			Set<String> _newIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+			_ids = members.putIfAbsent(key, _newIds);
+			if (_ids == null) {
+				_ids = _newIds;
+			}
+		}
+		return _ids;
+	}
+
+	/**
+	 * @param model a workrecord
+	 * @return the key of the partition the workrecord belongs to
+	 */
+	String key(
+			WorkRecordModel model) {
+		if (scheme.equals(SCHEME_MONTH)) {
+			return model.getStartAt() == null ? NO_KEY : monthKey(model.getStartAt());
+		}
+		return model.getCompanyId() == null || model.getCompanyId().isEmpty() ? NO_KEY : companyKey(model.getCompanyId());
+	}
+
+	private static String companyKey(
+			String companyId) {
+		return WorkRecordQueryPlan.key(companyId).replaceAll("[^a-z0-9_-]", "_");
+	}
+
+	private String monthKey(
+			Date date) {
+		Calendar _cal = Calendar.getInstance(timeZone, Locale.ROOT);
+		_cal.setTime(date);
+		return String.format(Locale.ROOT, "%04d-%02d", _cal.get(Calendar.YEAR), _cal.get(Calendar.MONTH) + 1);
+	}
+
+	private Date monthsAgo(
+			int months) {
+		Calendar _cal = Calendar.getInstance(timeZone, Locale.ROOT);
+		_cal.add(Calendar.MONTH, -months);
+		return _cal.getTime();
+	}
+
+	/**
+	 * @return the number of partitions
+	 */
+	int size() {
+		return members.size();
+	}
+
+	/**
+	 * @return the number of partitions loaded into the store
+	 */
+	int loadedSize() {
+		return loaded.size();
+	}
+}
@@ -0,0 +1,147 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.workrecords.file;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The part of a query that can be answered by the secondary indexes of the {@link WorkRecordStore}.
+ *
+ * Only conjunctive queries are considered, i.e. terms of the form <code>attribute op value</code>
+ * separated by <code>&amp;&amp;</code>, <code>&amp;</code>, <code>;</code>, <code>,</code> or <code>and</code>.
+ * Equality terms on resourceId, projectId and companyId and range terms on startAt are extracted;
+ * all other terms are ignored. A query containing a disjunction or negation is not planned at all, and neither is
+ * a query containing a quote: a quoted value may contain separators (e.g. <code>title="a, projectId=x"</code>),
+ * which only the grammar of the WorkRecordQueryHandler can tell apart.
+ * The plan only narrows down the candidates: the WorkRecordQueryHandler is still evaluated on each of them,
+ * so a plan must never exclude a workrecord the query handler would accept. For this reason, ids are
+ * compared case-insensitively and date ranges are widened by one day (the query handler may use another time zone).
+ */
+class WorkRecordQueryPlan {
+	static final long DATE_SLACK = 24L * 60L * 60L * 1000L;
+	private static final Pattern OR_PATTERN = Pattern.compile("\\|\\||\\||!|\\(|\\bor\\b|\\bnot\\b", Pattern.CASE_INSENSITIVE);
+	private static final Pattern SEPARATOR_PATTERN = Pattern.compile("&&|&|;|,|\\band\\b", Pattern.CASE_INSENSITIVE);
+	private static final Pattern QUOTE_PATTERN = Pattern.compile("['\"]");
+	private static final Pattern TERM_PATTERN = Pattern.compile("^\\s*([A-Za-z]+)\\s*(==|=|>=|<=|>|<)\\s*(.*?)\\s*$");
+	private static final String[] DATE_FORMATS = {
+		"yyyy-MM-dd'T'HH:mm:ss.SSSZ",
+		"yyyy-MM-dd'T'HH:mm:ssZ",
+		"yyyy-MM-dd'T'HH:mm:ss",
+		"yyyy-MM-dd"
+	};
+
+	String resourceId = null;
+	String projectId = null;
+	String companyId = null;
+	long startFrom = Long.MIN_VALUE;	// inclusive, in ms
+	long startTo = Long.MAX_VALUE;		// inclusive, in ms
+
+	/**
+	 * Extract the indexable terms of a query.
+	 * @param query the query as given to listWorkRecords (may be null)
+	 * @return the plan; {@link #isEmpty()} if no index can be used
+	 */
+	static WorkRecordQueryPlan parse(
+			String query) {
+		WorkRecordQueryPlan _plan = new WorkRecordQueryPlan();
+		if (query == null || query.trim().isEmpty() || OR_PATTERN.matcher(query).find() || QUOTE_PATTERN.matcher(query).find()) {
+			return _plan;
+		}
+		for (String _term : SEPARATOR_PATTERN.split(query)) {
+			Matcher _m = TERM_PATTERN.matcher(_term);
+			if (!_m.matches()) {
+				continue;
+			}
+			String _attribute = _m.group(1);
+			String _op = _m.group(2);
+			String _value = _m.group(3);
+			if (_value.isEmpty()) {
+				continue;
+			}
+			boolean _isEquality = _op.equals("=") || _op.equals("==");
+			if (_isEquality && _attribute.equalsIgnoreCase("resourceId")) {
+				_plan.resourceId = key(_value);
+			} else if (_isEquality && _attribute.equalsIgnoreCase("projectId")) {
+				_plan.projectId = key(_value);
+			} else if (_isEquality && _attribute.equalsIgnoreCase("companyId")) {
+				_plan.companyId = key(_value);
+			} else if (_attribute.equalsIgnoreCase("startAt")) {
+				Long _date = parseDate(_value);
+				if (_date == null) {
+					continue;
+				}
+				if (_isEquality || _op.startsWith(">")) {
+					_plan.startFrom = Math.max(_plan.startFrom, _date - DATE_SLACK);
+				}
+				if (_isEquality || _op.startsWith("<")) {
+					_plan.startTo = Math.min(_plan.startTo, _date + DATE_SLACK);
+				}
+			}
+		}
+		return _plan;
+	}
+
+	/**
+	 * @return true if none of the indexes can be used
+	 */
+	boolean isEmpty() {
+		return resourceId == null && projectId == null && companyId == null && !hasStartAtRange();
+	}
+
+	boolean hasStartAtRange() {
+		return startFrom != Long.MIN_VALUE || startTo != Long.MAX_VALUE;
+	}
+
+	/**
+	 * Normalize an id for use as a key of a secondary index.
+	 * @param id the id
+	 * @return the key
+	 */
+	static String key(
+			String id) {
+		return id == null ? "" : id.toLowerCase(Locale.ROOT);
+	}
+
+	private static Long parseDate(
+			String value) {
+		if (value.matches("-?\\d{9,}")) {
+			return Long.parseLong(value);
+		}
+		for (String _format : DATE_FORMATS) {
+			SimpleDateFormat _sdf = new SimpleDateFormat(_format, Locale.ROOT);
+			_sdf.setLenient(false);
+			try {
+				return _sdf.parse(value).getTime();
+			}
+			catch (ParseException _ex) {
+				// try the next format
+			}
+		}
+		return null;
+	}
+}
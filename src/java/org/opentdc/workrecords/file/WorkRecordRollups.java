@@ -0,0 +1,304 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.workrecords.file;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.opentdc.service.exception.ValidationException;
+import org.opentdc.workrecords.WorkRecordModel;
+
+/**
+ * Duration totals of all workrecords per resource, project, company, day, week and month, split by the billable flag.
+ * The totals are maintained incrementally by the {@link WorkRecordStore} on every change, so that reports
+ * without a filter are answered without looking at a single workrecord.
+ * Like the indexes of the store, the totals are weakly consistent with concurrent changes.
+ *
+ * A grouping is given as a comma-separated list of at most one of {@link #GROUP_RESOURCE}, {@link #GROUP_PROJECT},
+ * {@link #GROUP_COMPANY}, {@link #GROUP_DAY}, {@link #GROUP_WEEK}, {@link #GROUP_MONTH}, optionally combined with
+ * {@link #GROUP_BILLABLE}; an empty grouping returns the grand total.
+ */
+class WorkRecordRollups {
+	static final String GROUP_RESOURCE = "resource";
+	static final String GROUP_PROJECT = "project";
+	static final String GROUP_COMPANY = "company";
+	static final String GROUP_DAY = "day";
+	static final String GROUP_WEEK = "week";
+	static final String GROUP_MONTH = "month";
+	static final String GROUP_BILLABLE = "billable";
+	private static final String GROUP_ALL = "";
+	private static final String[] DIMENSIONS = { GROUP_RESOURCE, GROUP_PROJECT, GROUP_COMPANY, GROUP_DAY, GROUP_WEEK, GROUP_MONTH, GROUP_ALL };
+
+	private final TimeZone timeZone;
+	// dimension -> key -> totals
+	private final Map<String, ConcurrentMap<String, Rollup>> rollups = new HashMap<String, ConcurrentMap<String, Rollup>>();
+
+	/**
+	 * A parsed grouping.
+	 */
+	static class Grouping {
+		String dimension = GROUP_ALL;
+		boolean byBillable = false;
+
+		/**
+		 * @param groupBy the grouping, e.g. "project,billable" (may be null)
+		 * @return the parsed grouping
+		 * @throws ValidationException if the grouping is invalid
+		 */
+		static Grouping parse(
+				String groupBy)
+				throws ValidationException {
+			Grouping _grouping = new Grouping();
+			if (groupBy == null) {
+				return _grouping;
+			}
+			for (String _term : groupBy.split(",")) {
+				_term = _term.trim().toLowerCase(Locale.ROOT);
+				if (_term.isEmpty()) {
+					continue;
+				}
+				if (_term.equals(GROUP_BILLABLE)) {
+					_grouping.byBillable = true;
+				} else if (_grouping.dimension.equals(GROUP_ALL) && isDimension(_term)) {
+					_grouping.dimension = _term;
+				} else {
+					throw new ValidationException("groupBy <" + groupBy + "> is invalid; use at most one of resource, project, company, day, week, month, "
+							+ "optionally combined with billable.");
+				}
+			}
+			return _grouping;
+		}
+
+		private static boolean isDimension(
+				String term) {
+			for (String _dimension : DIMENSIONS) {
+				if (_dimension.equals(term)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Count and total minutes of one group, split into not billable (0) and billable (1).
+	 */
+	static class Rollup {
+		final AtomicLongArray counts = new AtomicLongArray(2);
+		final AtomicLongArray minutes = new AtomicLongArray(2);
+
+		void add(
+				int billable,
+				long count,
+				long minutes) {
+			this.counts.addAndGet(billable, count);
+			this.minutes.addAndGet(billable, minutes);
+		}
+	}
+
+	/**
+	 * Constructor.
+	 * @param timeZone the time zone that defines days, weeks and months
+	 */
+	WorkRecordRollups(
+			TimeZone timeZone) {
+		this.timeZone = timeZone;
+		for (String _dimension : DIMENSIONS) {
+			rollups.put(_dimension, new ConcurrentHashMap<String, Rollup>());
+		}
+	}
+
+	/**
+	 * Add a published workrecord to the totals.
+	 * @param model the workrecord
+	 */
+	void add(
+			WorkRecordModel model) {
+		update(model, 1);
+	}
+
+	/**
+	 * Remove a workrecord that is no longer published from the totals.
+	 * @param model the workrecord
+	 */
+	void remove(
+			WorkRecordModel model) {
+		update(model, -1);
+	}
+
+	private void update(
+			WorkRecordModel model,
+			int sign) {
+		int _billable = model.isBillable() ? 1 : 0;
+		long _minutes = sign * minutesOf(model);
+		Calendar _calendar = newCalendar();
+		for (String _dimension : DIMENSIONS) {
+			ConcurrentMap<String, Rollup> _rollups = rollups.get(_dimension);
+			String _key = keyOf(_dimension, model, _calendar);
+			Rollup _rollup = _rollups.get(_key);
+			if (_rollup == null) {
+				Rollup _newRollup = new Rollup();
+				_rollup = _rollups.putIfAbsent(_key, _newRollup);
+				if (_rollup == null) {
+					_rollup = _newRollup;
+				}
+			}
+			// groups that become empty are kept (see WorkRecordStore.remove(); there are only as many as keys)
+			_rollup.add(_billable, sign, _minutes);
+		}
+	}
+
+	/**
+	 * @param grouping the grouping
+	 * @return the totals of all workrecords, ordered by key and billable flag
+	 */
+	List<WorkRecordTotal> totals(
+			Grouping grouping) {
+		Totals _totals = new Totals(grouping);
+		for (Map.Entry<String, Rollup> _entry : rollups.get(grouping.dimension).entrySet()) {
+			Rollup _rollup = _entry.getValue();
+			for (int _billable = 0; _billable < 2; _billable++) {
+				_totals.add(_entry.getKey(), _billable == 1, _rollup.counts.get(_billable), _rollup.minutes.get(_billable));
+			}
+		}
+		return _totals.toList();
+	}
+
+	/**
+	 * @param grouping the grouping
+	 * @return an empty accumulator for totals of a subset of the workrecords
+	 */
+	Totals newTotals(
+			Grouping grouping) {
+		return new Totals(grouping);
+	}
+
+	/**
+	 * Accumulates totals of one grouping, e.g. for a filtered scan over the workrecords.
+	 */
+	class Totals {
+		private final Grouping grouping;
+		private final Calendar calendar = newCalendar();
+		// key -> {count not billable, minutes not billable, count billable, minutes billable}
+		private final Map<String, long[]> totals = new TreeMap<String, long[]>();
+
+		Totals(
+				Grouping grouping) {
+			this.grouping = grouping;
+		}
+
+		void add(
+				WorkRecordModel model) {
+			add(keyOf(grouping.dimension, model, calendar), model.isBillable(), 1, minutesOf(model));
+		}
+
+		private void add(
+				String key,
+				boolean billable,
+				long count,
+				long minutes) {
+			long[] _total = totals.get(key);
+			if (_total == null) {
+				_total = new long[4];
+				totals.put(key, _total);
+			}
+			int _offset = grouping.byBillable && billable ? 2 : 0;
+			_total[_offset] += count;
+			_total[_offset + 1] += minutes;
+		}
+
+		List<WorkRecordTotal> toList() {
+			List<WorkRecordTotal> _list = new ArrayList<WorkRecordTotal>();
+			for (Map.Entry<String, long[]> _entry : totals.entrySet()) {
+				String _key = grouping.dimension.equals(GROUP_ALL) ? null : _entry.getKey();
+				long[] _total = _entry.getValue();
+				for (int _offset = 0; _offset < 4; _offset += 2) {
+					// groups that became empty are omitted
+					if (_total[_offset] != 0) {
+						_list.add(new WorkRecordTotal(_key, grouping.byBillable ? Boolean.valueOf(_offset == 2) : null, 
+								_total[_offset], _total[_offset + 1]));
+					}
+				}
+			}
+			// the grand total is returned even if there are no workrecords
+			if (_list.isEmpty() && grouping.dimension.equals(GROUP_ALL) && !grouping.byBillable) {
+				_list.add(new WorkRecordTotal(null, null, 0, 0));
+			}
+			return _list;
+		}
+	}
+
+	private Calendar newCalendar() {
+		Calendar _calendar = Calendar.getInstance(timeZone);
+		// ISO 8601 weeks
+		_calendar.setFirstDayOfWeek(Calendar.MONDAY);
+		_calendar.setMinimalDaysInFirstWeek(4);
+		return _calendar;
+	}
+
+	private static long minutesOf(
+			WorkRecordModel model) {
+		return model.getDurationHours() * 60L + model.getDurationMinutes();
+	}
+
+	/**
+	 * @param dimension the dimension
+	 * @param model a workrecord
+	 * @param calendar a calendar of the time zone of the rollups (for day, week and month)
+	 * @return the key of the group of the workrecord
+	 */
+	private static String keyOf(
+			String dimension,
+			WorkRecordModel model,
+			Calendar calendar) {
+		if (dimension.equals(GROUP_RESOURCE)) {
+			return String.valueOf(model.getResourceId());
+		} else if (dimension.equals(GROUP_PROJECT)) {
+			return String.valueOf(model.getProjectId());
+		} else if (dimension.equals(GROUP_COMPANY)) {
+			return String.valueOf(model.getCompanyId());
+		} else if (dimension.equals(GROUP_ALL)) {
+			return GROUP_ALL;
+		}
+		if (model.getStartAt() == null) {
+			return "";
+		}
+		calendar.setTime(model.getStartAt());
+		if (dimension.equals(GROUP_DAY)) {
+			return String.format(Locale.ROOT, "%04d-%02d-%02d", calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH) + 1, calendar.get(Calendar.DAY_OF_MONTH));
+		} else if (dimension.equals(GROUP_WEEK)) {
+			return String.format(Locale.ROOT, "%04d-W%02d", calendar.getWeekYear(), calendar.get(Calendar.WEEK_OF_YEAR));
+		}
+		return String.format(Locale.ROOT, "%04d-%02d", calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH) + 1);
+	}
+}
@@ -0,0 +1,850 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.workrecords.file;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.opentdc.service.TagRefModel;
+import org.opentdc.service.exception.InternalServerErrorException;
+import org.opentdc.workrecords.TaggedWorkRecord;
+import org.opentdc.workrecords.WorkRecordModel;
+
+/**
+ * In-memory store of all workrecords and their tagRefs.
+ *
+ * Published TaggedWorkRecords are never modified in place: a writer modifies a copy (see {@link #copyOf(TaggedWorkRecord)})
+ * and replaces the published instance with it. Readers therefore never block and always see a consistent workrecord.
+ * Writers must hold the lock of the workrecord they change ({@link #lock(String)} / {@link #unlock(String)});
+ * the locks are striped by id, so that writers to different workrecords do not contend.
+ * {@link #snapshot()} waits for running writers and returns a consistent view of all workrecords.
+ *
+ * Secondary indexes on resourceId, projectId, companyId (hash) and startAt (range) are maintained
+ * together with the primary index; {@link #select(WorkRecordQueryPlan)} uses the most selective of them.
+ * The tagIndex maps each tagId to the workrecords that carry it ({@link #selectByTag(String)}).
+ *
+ * The workrecords are kept in the form of a {@link StorageEngine}; readers get TaggedWorkRecords materialized from it.
+ * Duration totals per resource, project, company and period are maintained in {@link WorkRecordRollups}.
+ * Comments, project titles and resource names are indexed for full-text search in {@link WorkRecordTextIndex}.
+ * Every published state carries a version ({@link StoredWorkRecord#getVersion()}), so that a copy can be prepared
+ * without holding the lock and published with a compare-and-set ({@link #replace(TaggedWorkRecord, TaggedWorkRecord, long)}).
+ */
+class WorkRecordStore {
+	private static final int STRIPES = 64;
+	static final long NO_VERSION = -1;
+
+	// TaggedWorkRecordComparator orders by startAt; its direction is taken from it once, so that the sorted index
+	// can compare the startAt of the stored workrecords without materializing them
+	private static final int START_AT_ORDER = startAtOrder();
+
+	/**
+	 * Order of the sorted index: by startAt like TaggedWorkRecordComparator, with the id as a tie-breaker
+	 * so that distinct workrecords never collapse into one entry. A missing startAt sorts like the earliest date.
+	 */
+	static final Comparator<TaggedWorkRecord> SortedIndexComparator = new Comparator<TaggedWorkRecord>() {
+		@Override
+		public int compare(TaggedWorkRecord wr1, TaggedWorkRecord wr2) {
+			return compareSortKeys(startAt(wr1.getModel()), wr1.getModel().getId(), startAt(wr2.getModel()), wr2.getModel().getId());
+		}
+	};
+
+	/**
+	 * The order of SortedIndexComparator on the sort keys of the stored workrecords, i.e. without materializing them.
+	 */
+	private static final Comparator<StoredWorkRecord> StoredComparator = new Comparator<StoredWorkRecord>() {
+		@Override
+		public int compare(StoredWorkRecord wr1, StoredWorkRecord wr2) {
+			return compareSortKeys(wr1.getStartAt(), wr1.getId(), wr2.getStartAt(), wr2.getId());
+		}
+	};
+
+	private static int compareSortKeys(
+			long startAt1,
+			String id1,
+			long startAt2,
+			String id2) {
+		if (startAt1 != startAt2) {
+			return (startAt1 < startAt2 ? -1 : 1) * START_AT_ORDER;
+		}
+		return id1.compareTo(id2);
+	}
+
+	private static long startAt(
+			WorkRecordModel model) {
+		return model.getStartAt() == null ? Long.MIN_VALUE : model.getStartAt().getTime();
+	}
+
+	/**
+	 * @return 1 if TaggedWorkRecordComparator puts earlier workrecords first, -1 if it puts later ones first
+	 */
+	private static int startAtOrder() {
+		TaggedWorkRecord _earlier = new TaggedWorkRecord();
+		_earlier.setModel(new WorkRecordModel());
+		_earlier.getModel().setStartAt(new Date(0));
+		TaggedWorkRecord _later = new TaggedWorkRecord();
+		_later.setModel(new WorkRecordModel());
+		_later.getModel().setStartAt(new Date(1));
+		return TaggedWorkRecord.TaggedWorkRecordComparator.compare(_later, _earlier) < 0 ? -1 : 1;
+	}
+
+	/**
+	 * A match of a full-text search.
+	 */
+	private static class Hit {
+		final StoredWorkRecord workRecord;
+		final float relevance;
+
+		Hit(StoredWorkRecord workRecord, float relevance) {
+			this.workRecord = workRecord;
+			this.relevance = relevance;
+		}
+	}
+
+	private static final Comparator<Hit> HitComparator = new Comparator<Hit>() {
+		@Override
+		public int compare(Hit hit1, Hit hit2) {
+			return StoredComparator.compare(hit1.workRecord, hit2.workRecord);
+		}
+	};
+
+	private static final Comparator<Hit> HitRelevanceComparator = new Comparator<Hit>() {
+		@Override
+		public int compare(Hit hit1, Hit hit2) {
+			int _result = Float.compare(hit2.relevance, hit1.relevance);
+			return _result != 0 ? _result : HitComparator.compare(hit1, hit2);
+		}
+	};
+
+	private final StorageEngine engine;
+	private final ConcurrentMap<String, StoredWorkRecord> index = new ConcurrentHashMap<String, StoredWorkRecord>();
+	// tagRef id -> id of the workrecord that contains the tagRef
+	private final ConcurrentMap<String, String> tagRefIndex = new ConcurrentHashMap<String, String>();
+	// all workrecords in the order of listWorkRecords
+	private final NavigableSet<StoredWorkRecord> sortedIndex = new ConcurrentSkipListSet<StoredWorkRecord>(StoredComparator);
+	// secondary indexes: key -> ids of the workrecords
+	private final ConcurrentMap<String, Set<String>> resourceIndex = new ConcurrentHashMap<String, Set<String>>();
+	private final ConcurrentMap<String, Set<String>> projectIndex = new ConcurrentHashMap<String, Set<String>>();
+	private final ConcurrentMap<String, Set<String>> companyIndex = new ConcurrentHashMap<String, Set<String>>();
+	private final NavigableSet<StartAtKey> startAtIndex = new ConcurrentSkipListSet<StartAtKey>();
+	// reverse index: tagId -> ids of the workrecords that contain a tagRef to this tag
+	private final ConcurrentMap<String, Set<String>> tagIndex = new ConcurrentHashMap<String, Set<String>>();
+	private final WorkRecordRollups rollups;
+	private final WorkRecordTextIndex textIndex = new WorkRecordTextIndex();
+	private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+	// writers share the read lock; snapshot() takes the write lock to exclude all writers
+	private final ReentrantReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+	// versions are unique across all workrecords and increase with every change; they start with the time of 
+	// construction (ms * 1000), so that a version of a previous run is never reused for another state
+	private final AtomicLong versions = new AtomicLong(System.currentTimeMillis() * 1000L);
+
+	WorkRecordStore() {
+		this(new ObjectStorageEngine());
+	}
+
+	/**
+	 * Constructor.
+	 * @param engine the storage engine that keeps the workrecords
+	 */
+	WorkRecordStore(
+			StorageEngine engine) {
+		this(engine, TimeZone.getDefault());
+	}
+
+	/**
+	 * Constructor.
+	 * @param engine the storage engine that keeps the workrecords
+	 * @param timeZone the time zone of the days, weeks and months of the rollups
+	 */
+	WorkRecordStore(
+			StorageEngine engine,
+			TimeZone timeZone) {
+		this.engine = engine;
+		this.rollups = new WorkRecordRollups(timeZone);
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i] = new ReentrantLock();
+		}
+	}
+
+	/**
+	 * Load the workrecords read from persistent storage, building all indexes (including the tagRefIndex) in one pass.
+	 * Must be called before the store is shared.
+	 * @param workRecords the workrecords to load
+	 */
+	void load(
+			List<TaggedWorkRecord> workRecords) {
+		for (TaggedWorkRecord _workRecord : workRecords) {
+			String _id = _workRecord.getModel().getId();
+			for (TagRefModel _tagRef : _workRecord.getTagRefs()) {
+				tagRefIndex.put(_tagRef.getId(), _id);
+				add(tagIndex, _tagRef.getTagId(), _id);
+			}
+			StoredWorkRecord _stored = engine.store(_workRecord, versions.get());
+			index.put(_id, _stored);
+			sortedIndex.add(_stored);
+			addToSecondaryIndexes(_workRecord.getModel());
+		}
+	}
+
+	/**
+	 * Add workrecords that are loaded lazily while the store is shared (see {@link WorkRecordPartitions}).
+	 * Workrecords that are already present are skipped, i.e. a published workrecord is never replaced by an older copy.
+	 * @param workRecords the workrecords to add
+	 * @return the number of workrecords added
+	 */
+	int attach(
+			List<TaggedWorkRecord> workRecords) {
+		int _added = 0;
+		for (TaggedWorkRecord _workRecord : workRecords) {
+			String _id = _workRecord.getModel().getId();
+			StoredWorkRecord _stored = engine.store(_workRecord, versions.get());
+			if (index.putIfAbsent(_id, _stored) != null) {
+				continue;
+			}
+			for (TagRefModel _tagRef : _workRecord.getTagRefs()) {
+				tagRefIndex.put(_tagRef.getId(), _id);
+				add(tagIndex, _tagRef.getTagId(), _id);
+			}
+			sortedIndex.add(_stored);
+			addToSecondaryIndexes(_workRecord.getModel());
+			_added++;
+		}
+		return _added;
+	}
+
+	/************************************** readers ************************************/
+	/**
+	 * @param id the id of the workrecord
+	 * @return the published workrecord or null if there is none with this id
+	 */
+	TaggedWorkRecord get(
+			String id) {
+		StoredWorkRecord _stored = index.get(id);
+		return _stored == null ? null : _stored.materialize();
+	}
+
+	/**
+	 * @param id the id of the workrecord
+	 * @return the published workrecord in its stored form (with its version) or null if there is none with this id
+	 */
+	StoredWorkRecord getStored(
+			String id) {
+		return index.get(id);
+	}
+
+	/**
+	 * @param tagRefId the id of the tagRef
+	 * @return the tagRef or null if there is none with this id
+	 */
+	TagRefModel getTagRef(
+			String tagRefId) {
+		String _id = tagRefIndex.get(tagRefId);
+		TaggedWorkRecord _workRecord = _id == null ? null : get(_id);
+		// the workrecord may have been removed in the meantime
+		return _workRecord == null ? null : findTagRef(_workRecord, tagRefId);
+	}
+
+	/**
+	 * @param workRecord a workrecord
+	 * @param tagRefId the id of a tagRef
+	 * @return the tagRef of the workrecord with this id, or null if the workrecord does not contain it
+	 */
+	static TagRefModel findTagRef(
+			TaggedWorkRecord workRecord,
+			String tagRefId) {
+		for (TagRefModel _tagRef : workRecord.getTagRefs()) {
+			if (_tagRef.getId().equals(tagRefId)) {
+				return _tagRef;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return all workrecords in the order of listWorkRecords (weakly consistent)
+	 */
+	Iterable<TaggedWorkRecord> sorted() {
+		return materialized(sortedIndex);
+	}
+
+	int size() {
+		return index.size();
+	}
+
+	/**
+	 * Select the candidates for a query with the most selective secondary index.
+	 * @param plan the indexable part of the query
+	 * @return all workrecords if no index can be used; otherwise the candidates (a superset of the matches);
+	 *	in both cases in the order of listWorkRecords
+	 */
+	Iterable<TaggedWorkRecord> select(
+			WorkRecordQueryPlan plan) {
+		return materialized(candidates(plan));
+	}
+
+	/**
+	 * Select the candidates for a query that follow a workrecord in the order of listWorkRecords.
+	 * @param plan the indexable part of the query
+	 * @param afterId the id of the workrecord
+	 * @return the candidates after the workrecord (see {@link #select(WorkRecordQueryPlan)}), 
+	 *	or null if there is no workrecord with this id
+	 */
+	Iterable<TaggedWorkRecord> select(
+			WorkRecordQueryPlan plan,
+			String afterId) {
+		StoredWorkRecord _after = index.get(afterId);
+		if (_after == null) {
+			return null;
+		}
+		return materialized(candidates(plan).tailSet(_after, false));
+	}
+
+	private NavigableSet<StoredWorkRecord> candidates(
+			WorkRecordQueryPlan plan) {
+		if (plan.isEmpty()) {
+			return sortedIndex;
+		}
+		Collection<String> _ids = null;
+		if (plan.resourceId != null) {
+			_ids = smallest(_ids, ids(resourceIndex, plan.resourceId));
+		}
+		if (plan.projectId != null) {
+			_ids = smallest(_ids, ids(projectIndex, plan.projectId));
+		}
+		if (plan.companyId != null) {
+			_ids = smallest(_ids, ids(companyIndex, plan.companyId));
+		}
+		if (plan.hasStartAtRange()) {
+			// count the range only up to the size of the best hash index candidates
+			NavigableSet<StartAtKey> _range = plan.startTo == Long.MAX_VALUE ?
+					startAtIndex.tailSet(new StartAtKey(plan.startFrom, ""), true) :
+					startAtIndex.subSet(new StartAtKey(plan.startFrom, ""), true, new StartAtKey(plan.startTo + 1, ""), false);
+			int _limit = _ids == null ? Integer.MAX_VALUE : _ids.size();
+			List<String> _rangeIds = new ArrayList<String>();
+			for (StartAtKey _key : _range) {
+				_rangeIds.add(_key.id);
+				if (_rangeIds.size() >= _limit) {
+					break;
+				}
+			}
+			if (_rangeIds.size() < _limit) {
+				_ids = _rangeIds;
+			}
+		}
+		return sortedSubset(_ids);
+	}
+
+	/**
+	 * Select the workrecords that contain a tagRef to a tag.
+	 * @param tagId the id of the tag
+	 * @return the workrecords in the order of listWorkRecords
+	 */
+	Iterable<TaggedWorkRecord> selectByTag(
+			String tagId) {
+		return materialized(sortedSubset(ids(tagIndex, tagId)));
+	}
+
+	/**
+	 * @param ids ids of workrecords
+	 * @return the workrecords with these ids in the order of listWorkRecords
+	 */
+	private NavigableSet<StoredWorkRecord> sortedSubset(
+			Collection<String> ids) {
+		NavigableSet<StoredWorkRecord> _workRecords = new TreeSet<StoredWorkRecord>(StoredComparator);
+		for (String _id : ids) {
+			StoredWorkRecord _workRecord = index.get(_id);
+			if (_workRecord != null) {		// may have been removed in the meantime
+				_workRecords.add(_workRecord);
+			}
+		}
+		return _workRecords;
+	}
+
+	/**
+	 * @param workRecords stored workrecords
+	 * @return a view that materializes the workrecords while it is iterated
+	 */
+	private static Iterable<TaggedWorkRecord> materialized(
+			final Iterable<StoredWorkRecord> workRecords) {
+		return new Iterable<TaggedWorkRecord>() {
+			@Override
+			public Iterator<TaggedWorkRecord> iterator() {
+				final Iterator<StoredWorkRecord> _it = workRecords.iterator();
+				return new Iterator<TaggedWorkRecord>() {
+					@Override
+					public boolean hasNext() {
+						return _it.hasNext();
+					}
+
+					@Override
+					public TaggedWorkRecord next() {
+						return _it.next().materialize();
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+
+	private static Collection<String> ids(
+			ConcurrentMap<String, Set<String>> secondaryIndex,
+			String key) {
+		Set<String> _ids = secondaryIndex.get(key);
+		return _ids == null ? Collections.<String>emptySet() : _ids;
+	}
+
+	private static Collection<String> smallest(
+			Collection<String> ids1,
+			Collection<String> ids2) {
+		return (ids1 == null || ids2.size() < ids1.size()) ? ids2 : ids1;
+	}
+
+	/**
+	 * Full-text search in the comment, projectTitle and resourceName of all workrecords (see {@link WorkRecordTextIndex}).
+	 * @param text the search text; every term must match (as a prefix of a token)
+	 * @param byRelevance true to order the matches by relevance (equally relevant ones in the order of listWorkRecords),
+	 * false to order them like listWorkRecords (by startAt)
+	 * @param limit the maximal number of matches to return
+	 * @return the matches
+	 */
+	List<TaggedWorkRecord> search(
+			String text,
+			boolean byRelevance,
+			int limit) {
+		return search(text, byRelevance, null, limit);
+	}
+
+	/**
+	 * Full-text search that continues after a match of a previous page.
+	 * The matches are ranked on the sort keys of the stored workrecords; 
+	 * only the best matches after afterId up to the limit are materialized.
+	 * @param text the search text; every term must match (as a prefix of a token)
+	 * @param byRelevance true to order the matches by relevance (equally relevant ones in the order of listWorkRecords),
+	 * false to order them like listWorkRecords (by startAt)
+	 * @param afterId the id of the last match of the previous page, or null to start with the best match
+	 * @param limit the maximal number of matches to return
+	 * @return the matches, or null if the workrecord afterId no longer exists or no longer matches
+	 */
+	List<TaggedWorkRecord> search(
+			String text,
+			boolean byRelevance,
+			String afterId,
+			int limit) {
+		Map<String, Float> _scores = textIndex.search(text, index);
+		final Comparator<Hit> _order = byRelevance ? HitRelevanceComparator : HitComparator;
+		Hit _after = null;
+		if (afterId != null) {
+			StoredWorkRecord _workRecord = index.get(afterId);
+			Float _score = _scores.get(afterId);
+			if (_workRecord == null || _score == null) {
+				return null;
+			}
+			_after = new Hit(_workRecord, _score);
+		}
+		// the heap keeps the best matches; its head is the worst of them
+		PriorityQueue<Hit> _best = new PriorityQueue<Hit>(Math.max(1, Math.min(limit, _scores.size())), 
+			new Comparator<Hit>() {
+				@Override
+				public int compare(Hit hit1, Hit hit2) {
+					return _order.compare(hit2, hit1);
+				}
+			});
+		for (Map.Entry<String, Float> _score : _scores.entrySet()) {
+			StoredWorkRecord _workRecord = index.get(_score.getKey());
+			if (_workRecord == null) {		// may have been removed in the meantime
+				continue;
+			}
+			Hit _hit = new Hit(_workRecord, _score.getValue());
+			if (_after != null && _order.compare(_hit, _after) <= 0) {
+				continue;
+			}
+			if (_best.size() < limit) {
+				_best.add(_hit);
+			} else if (limit > 0 && _order.compare(_hit, _best.peek()) < 0) {
+				_best.poll();
+				_best.add(_hit);
+			}
+		}
+		List<Hit> _hits = new ArrayList<Hit>(_best);
+		Collections.sort(_hits, _order);
+		List<TaggedWorkRecord> _workRecords = new ArrayList<TaggedWorkRecord>(_hits.size());
+		for (Hit _hit : _hits) {
+			_workRecords.add(_hit.workRecord.materialize());
+		}
+		return _workRecords;
+	}
+
+	int tagRefCount() {
+		return tagRefIndex.size();
+	}
+
+	int textTermCount() {
+		return textIndex.termCount();
+	}
+
+	/**
+	 * @return the duration totals of all workrecords
+	 */
+	WorkRecordRollups getRollups() {
+		return rollups;
+	}
+
+	/**
+	 * @return the storage engine
+	 */
+	StorageEngine getEngine() {
+		return engine;
+	}
+
+	/**
+	 * Estimate the heap used per workrecord by the storage engine (without the indexes, which are the same for all engines).
+	 * This iterates over all workrecords.
+	 * @return the estimated number of bytes per workrecord (0 if the store is empty)
+	 */
+	long estimateBytesPerRecord() {
+		long _bytes = engine.sharedBytes();
+		int _count = 0;
+		for (StoredWorkRecord _workRecord : index.values()) {
+			_bytes += _workRecord.estimateBytes();
+			_count++;
+		}
+		return _count == 0 ? 0 : _bytes / _count;
+	}
+
+	/**
+	 * Return a consistent view of all workrecords; running writers are waited for.
+	 * @return a copy of the list of all workrecords; the workrecords are materialized when the list is read
+	 */
+	List<TaggedWorkRecord> snapshot() {
+		return snapshot(null);
+	}
+
+	/**
+	 * Return a consistent view of all workrecords and run an action while no writer is active.
+	 * @param whileExclusive action to run while all writers are excluded (may be null)
+	 * @return a copy of the list of all workrecords; the workrecords are materialized when the list is read
+	 */
+	List<TaggedWorkRecord> snapshot(
+			Runnable whileExclusive) {
+		snapshotLock.writeLock().lock();
+		try {
+			final List<StoredWorkRecord> _snapshot = new ArrayList<StoredWorkRecord>(index.values());
+			if (whileExclusive != null) {
+				whileExclusive.run();
+			}
+			return new AbstractList<TaggedWorkRecord>() {
+				@Override
+				public TaggedWorkRecord get(int i) {
+					return _snapshot.get(i).materialize();
+				}
+
+				@Override
+				public int size() {
+					return _snapshot.size();
+				}
+			};
+		}
+		finally {
+			snapshotLock.writeLock().unlock();
+		}
+	}
+
+	/************************************** writers ************************************/
+	/**
+	 * Acquire the write lock of a workrecord.
+	 * @param id the id of the workrecord
+	 */
+	void lock(
+			String id) {
+		snapshotLock.readLock().lock();
+		stripe(id).lock();
+	}
+
+	/**
+	 * Release the write lock of a workrecord.
+	 * @param id the id of the workrecord
+	 */
+	void unlock(
+			String id) {
+		stripe(id).unlock();
+		snapshotLock.readLock().unlock();
+	}
+
+	private ReentrantLock stripe(
+			String id) {
+		return stripes[(id.hashCode() & 0x7fffffff) % STRIPES];
+	}
+
+	private void checkLocked(
+			String id) {
+		if (!stripe(id).isHeldByCurrentThread()) {
+			throw new IllegalStateException("workrecord <" + id + "> is changed without holding its lock.");
+		}
+	}
+
+	/**
+	 * Publish a new workrecord including its tagRefs. The caller must hold the lock of the workrecord.
+	 * @param workRecord the new workrecord
+	 */
+	void put(
+			TaggedWorkRecord workRecord) {
+		String _id = workRecord.getModel().getId();
+		checkLocked(_id);
+		for (TagRefModel _tagRef : workRecord.getTagRefs()) {
+			tagRefIndex.put(_tagRef.getId(), _id);
+			add(tagIndex, _tagRef.getTagId(), _id);
+		}
+		StoredWorkRecord _stored = engine.store(workRecord, versions.incrementAndGet());
+		index.put(_id, _stored);
+		sortedIndex.add(_stored);
+		addToSecondaryIndexes(workRecord.getModel());
+	}
+
+	/**
+	 * Replace a published workrecord by its modified copy. The caller must hold the lock of the workrecord.
+	 * tagRefs that were added to or removed from the copy are added to or removed from the tagRefIndex.
+	 * @param oldWorkRecord the currently published workrecord
+	 * @param newWorkRecord the modified copy
+	 */
+	void replace(
+			TaggedWorkRecord oldWorkRecord,
+			TaggedWorkRecord newWorkRecord) {
+		String _id = oldWorkRecord.getModel().getId();
+		checkLocked(_id);
+		publish(_id, oldWorkRecord, newWorkRecord);
+	}
+
+	/**
+	 * Replace a published workrecord by its modified copy if it is still of the given version (compare-and-set).
+	 * The caller must hold the lock of the workrecord; the copy may have been prepared without holding it.
+	 * @param oldWorkRecord the workrecord the copy was made from
+	 * @param newWorkRecord the modified copy
+	 * @param version the version of oldWorkRecord
+	 * @return the new version, or NO_VERSION if the workrecord was changed or removed in the meantime (nothing is replaced)
+	 */
+	long replace(
+			TaggedWorkRecord oldWorkRecord,
+			TaggedWorkRecord newWorkRecord,
+			long version) {
+		String _id = oldWorkRecord.getModel().getId();
+		checkLocked(_id);
+		StoredWorkRecord _current = index.get(_id);
+		if (_current == null || _current.getVersion() != version) {
+			return NO_VERSION;
+		}
+		return publish(_id, oldWorkRecord, newWorkRecord);
+	}
+
+	private long publish(
+			String id,
+			TaggedWorkRecord oldWorkRecord,
+			TaggedWorkRecord newWorkRecord) {
+		Set<String> _tagRefIds = new HashSet<String>();
+		for (TagRefModel _tagRef : newWorkRecord.getTagRefs()) {
+			tagRefIndex.put(_tagRef.getId(), id);
+			add(tagIndex, _tagRef.getTagId(), id);
+			_tagRefIds.add(_tagRef.getId());
+		}
+		sortedIndex.remove(index.get(id));
+		removeFromSecondaryIndexes(oldWorkRecord.getModel());
+		StoredWorkRecord _stored = engine.store(newWorkRecord, versions.incrementAndGet());
+		index.put(id, _stored);
+		sortedIndex.add(_stored);
+		addToSecondaryIndexes(newWorkRecord.getModel());
+		for (TagRefModel _tagRef : oldWorkRecord.getTagRefs()) {
+			if (!_tagRefIds.contains(_tagRef.getId())) {
+				if (tagRefIndex.remove(_tagRef.getId()) == null) {
+					throw new InternalServerErrorException("TagRef <" + id + "/tagref/" + _tagRef.getId()
+							+ "> can not be removed, because it does not exist in the index.");
+				}
+				if (!newWorkRecord.containsTag(_tagRef.getTagId())) {
+					remove(tagIndex, _tagRef.getTagId(), id);
+				}
+			}
+		}
+		return _stored.getVersion();
+	}
+
+	/**
+	 * Remove a published workrecord and all its tagRefs. The caller must hold the lock of the workrecord.
+	 * @param workRecord the currently published workrecord
+	 */
+	void remove(
+			TaggedWorkRecord workRecord) {
+		String _id = workRecord.getModel().getId();
+		checkLocked(_id);
+		// remove all tagRefs of this TaggedWorkRecord from tagRefIndex
+		for (TagRefModel _tagRef : workRecord.getTagRefs()) {
+			if (tagRefIndex.remove(_tagRef.getId()) == null) {
+				throw new InternalServerErrorException("tagRef <" + _tagRef.getId()
+						+ "> can not be removed, because it does not exist in the tagRefIndex");
+			}
+			remove(tagIndex, _tagRef.getTagId(), _id);
+		}
+		StoredWorkRecord _stored = index.get(_id);
+		if (_stored != null) {
+			sortedIndex.remove(_stored);
+		}
+		removeFromSecondaryIndexes(workRecord.getModel());
+		if (index.remove(_id) == null) {
+			throw new InternalServerErrorException("workRecord <" + _id
+					+ "> can not be removed, because it does not exist in the index.");
+		}
+	}
+
+	private void addToSecondaryIndexes(
+			WorkRecordModel model) {
+		add(resourceIndex, WorkRecordQueryPlan.key(model.getResourceId()), model.getId());
+		add(projectIndex, WorkRecordQueryPlan.key(model.getProjectId()), model.getId());
+		add(companyIndex, WorkRecordQueryPlan.key(model.getCompanyId()), model.getId());
+		startAtIndex.add(new StartAtKey(model));
+		rollups.add(model);
+		textIndex.add(model);
+	}
+
+	private void removeFromSecondaryIndexes(
+			WorkRecordModel model) {
+		remove(resourceIndex, WorkRecordQueryPlan.key(model.getResourceId()), model.getId());
+		remove(projectIndex, WorkRecordQueryPlan.key(model.getProjectId()), model.getId());
+		remove(companyIndex, WorkRecordQueryPlan.key(model.getCompanyId()), model.getId());
+		startAtIndex.remove(new StartAtKey(model));
+		rollups.remove(model);
+		textIndex.remove(model);
+	}
+
+	private static void add(
+			ConcurrentMap<String, Set<String>> secondaryIndex,
+			String key,
+			String id) {
+		Set<String> _ids = secondaryIndex.get(key);
+		if (_ids == null) {
+			Set<String> _newIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+			_ids = secondaryIndex.putIfAbsent(key, _newIds);
+			if (_ids == null) {
+				_ids = _newIds;
+			}
+		}
+		_ids.add(id);
+	}
+
+	private static void remove(
+			ConcurrentMap<String, Set<String>> secondaryIndex,
+			String key,
+			String id) {
+		Set<String> _ids = secondaryIndex.get(key);
+		if (_ids != null) {
+			_ids.remove(id);
+			// empty sets are kept (there are only as many as resources, projects, companies and tags);
+			// removing them would race with a concurrent add() of the same key
+		}
+	}
+
+	/**
+	 * Entry of the startAt range index, ordered by startAt and id.
+	 */
+	private static class StartAtKey implements Comparable<StartAtKey> {
+		final long startAt;
+		final String id;
+
+		StartAtKey(long startAt, String id) {
+			this.startAt = startAt;
+			this.id = id;
+		}
+
+		StartAtKey(WorkRecordModel model) {
+			this(startAt(model), model.getId());
+		}
+
+		@Override
+		public int compareTo(StartAtKey other) {
+			if (startAt != other.startAt) {
+				return startAt < other.startAt ? -1 : 1;
+			}
+			return id.compareTo(other.id);
+		}
+	}
+
+	/**
+	 * Create a private copy of a workrecord that can be modified and then published with {@link #replace(TaggedWorkRecord, TaggedWorkRecord)}.
+	 * The tagRefs themselves are shared; they are never modified after their creation.
+	 * @param workRecord the workrecord to copy
+	 * @return the copy
+	 */
+	static TaggedWorkRecord copyOf(
+			TaggedWorkRecord workRecord) {
+		TaggedWorkRecord _copy = new TaggedWorkRecord();
+		_copy.setModel(copyOf(workRecord.getModel()));
+		for (TagRefModel _tagRef : workRecord.getTagRefs()) {
+			_copy.addTagRef(_tagRef);
+		}
+		return _copy;
+	}
+
+	private static WorkRecordModel copyOf(
+			WorkRecordModel model) {
+		WorkRecordModel _copy = new WorkRecordModel();
+		_copy.setId(model.getId());
+		_copy.setCompanyId(model.getCompanyId());
+		_copy.setCompanyTitle(model.getCompanyTitle());
+		_copy.setProjectId(model.getProjectId());
+		_copy.setProjectTitle(model.getProjectTitle());
+		_copy.setResourceId(model.getResourceId());
+		_copy.setResourceName(model.getResourceName());
+		_copy.setStartAt(model.getStartAt());
+		_copy.setDurationHours(model.getDurationHours());
+		_copy.setDurationMinutes(model.getDurationMinutes());
+		_copy.setBillable(model.isBillable());
+		_copy.setRunning(model.isRunning());
+		_copy.setPaused(model.isPaused());
+		_copy.setComment(model.getComment());
+		_copy.setTagIdList(model.getTagIdList());
+		_copy.setCreatedAt(model.getCreatedAt());
+		_copy.setCreatedBy(model.getCreatedBy());
+		_copy.setModifiedAt(model.getModifiedAt());
+		_copy.setModifiedBy(model.getModifiedBy());
+		return _copy;
+	}
+}
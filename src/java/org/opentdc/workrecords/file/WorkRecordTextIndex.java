@@ -0,0 +1,413 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.workrecords.file;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.opentdc.workrecords.WorkRecordModel;
+
+/**
+ * Inverted index over the comment, projectTitle and resourceName of all workrecords, maintained incrementally 
+ * by the {@link WorkRecordStore} together with its secondary indexes.
+ *
+ * Texts are split into tokens at every character that is neither a letter nor a digit; tokens are case-folded
+ * and stripped of accents. The terms are kept sorted, so that every term of a search text matches all tokens 
+ * that start with it (prefix search). Comments are indexed per workrecord; titles and names are shared by many
+ * workrecords, so they are indexed once per distinct title and point to the workrecords that carry it.
+ * The cost of a search depends on the number of matches, not on the number of workrecords.
+ * Like the other indexes of the store, the text index is weakly consistent with concurrent changes.
+ */
+class WorkRecordTextIndex {
+	static final float COMMENT_WEIGHT = 1.0f;
+	static final float TITLE_WEIGHT = 0.5f;
+	// a term that is only a prefix of a token counts less than a term that equals the token
+	static final float PREFIX_FACTOR = 0.5f;
+	private static final char FIELD_PROJECT_TITLE = 'p';
+	private static final char FIELD_RESOURCE_NAME = 'r';
+
+	// term -> workrecords with a comment and titles containing the term
+	private final ConcurrentNavigableMap<String, Postings> terms = new ConcurrentSkipListMap<String, Postings>();
+	// field + title -> workrecords that carry the title
+	private final ConcurrentMap<String, Title> titles = new ConcurrentHashMap<String, Title>();
+
+	/**
+	 * The occurrences of one term.
+	 * Postings are removed from the index as soon as they are empty. Changes are synchronized on the postings,
+	 * and an add that finds removed postings retries with the new ones, so that no occurrence gets lost. 
+	 * Searches read the sets without locking.
+	 */
+	private static class Postings {
+		// ids of the workrecords whose comment contains the term
+		final Set<String> ids = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		// keys of the titles that contain the term
+		final Set<String> titles = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		// true once the postings are no longer in the index (guarded by this)
+		boolean removed;
+	}
+
+	/**
+	 * The workrecords that carry one title; removed from the index together with the links from its terms 
+	 * as soon as no workrecord carries the title any more (synchronized like {@link Postings}).
+	 */
+	private static class Title {
+		final Set<String> ids = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		// true once the terms of the title link to it (guarded by this)
+		boolean linked;
+		// true once the title is no longer in the index (guarded by this)
+		boolean removed;
+	}
+
+	/**
+	 * Index a workrecord.
+	 * @param model the workrecord
+	 */
+	void add(
+			WorkRecordModel model) {
+		String _id = model.getId();
+		for (String _token : tokenize(model.getComment())) {
+			addPosting(_token, _id, false);
+		}
+		addTitle(FIELD_PROJECT_TITLE, model.getProjectTitle(), _id);
+		addTitle(FIELD_RESOURCE_NAME, model.getResourceName(), _id);
+	}
+
+	/**
+	 * Remove a workrecord from the index.
+	 * @param model the indexed state of the workrecord
+	 */
+	void remove(
+			WorkRecordModel model) {
+		String _id = model.getId();
+		for (String _token : tokenize(model.getComment())) {
+			removePosting(_token, _id, false);
+		}
+		removeTitle(FIELD_PROJECT_TITLE, model.getProjectTitle(), _id);
+		removeTitle(FIELD_RESOURCE_NAME, model.getResourceName(), _id);
+	}
+
+	private void addTitle(
+			char field,
+			String title,
+			String id) {
+		if (title == null || title.isEmpty()) {
+			return;
+		}
+		String _key = field + title;
+		while (true) {
+			Title _title = titles.get(_key);
+			if (_title == null) {
+				Title _newTitle = new Title();
+				_title = titles.putIfAbsent(_key, _newTitle);
+				if (_title == null) {
+					_title = _newTitle;
+				}
+			}
+			synchronized (_title) {
+				if (!_title.removed) {
+					if (!_title.linked) {
+						// the first workrecord with this title links the title to its terms
+						for (String _token : tokenize(title)) {
+							addPosting(_token, _key, true);
+						}
+						_title.linked = true;
+					}
+					_title.ids.add(id);
+					return;
+				}
+			}
+			// the title was removed concurrently; retry with a new one
+		}
+	}
+
+	private void removeTitle(
+			char field,
+			String title,
+			String id) {
+		if (title == null || title.isEmpty()) {
+			return;
+		}
+		String _key = field + title;
+		Title _title = titles.get(_key);
+		if (_title == null) {
+			return;
+		}
+		synchronized (_title) {
+			if (_title.ids.remove(id) && _title.ids.isEmpty()) {
+				_title.removed = true;
+				titles.remove(_key, _title);
+				if (_title.linked) {
+					for (String _token : tokenize(title)) {
+						removePosting(_token, _key, true);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Add an occurrence of a term.
+	 * @param term a case-folded term
+	 * @param value the id of a workrecord or the key of a title
+	 * @param title true if value is the key of a title
+	 */
+	private void addPosting(
+			String term,
+			String value,
+			boolean title) {
+		while (true) {
+			Postings _postings = terms.get(term);
+			if (_postings == null) {
+				Postings _newPostings = new Postings();
+				_postings = terms.putIfAbsent(term, _newPostings);
+				if (_postings == null) {
+					_postings = _newPostings;
+				}
+			}
+			synchronized (_postings) {
+				if (!_postings.removed) {
+					(title ? _postings.titles : _postings.ids).add(value);
+					return;
+				}
+			}
+			// the postings were removed concurrently; retry with new ones
+		}
+	}
+
+	/**
+	 * Remove an occurrence of a term, and the postings of the term if it no longer occurs.
+	 * @param term a case-folded term
+	 * @param value the id of a workrecord or the key of a title
+	 * @param title true if value is the key of a title
+	 */
+	private void removePosting(
+			String term,
+			String value,
+			boolean title) {
+		Postings _postings = terms.get(term);
+		if (_postings == null) {
+			return;
+		}
+		synchronized (_postings) {
+			if ((title ? _postings.titles : _postings.ids).remove(value) 
+					&& _postings.ids.isEmpty() && _postings.titles.isEmpty()) {
+				_postings.removed = true;
+				terms.remove(term, _postings);
+			}
+		}
+	}
+
+	/**
+	 * @return the number of distinct terms in the index
+	 */
+	int termCount() {
+		return terms.size();
+	}
+
+	/**
+	 * Find the workrecords that match all terms of a search text.
+	 * The relevance of a workrecord is the sum over all terms of the weight of the best match 
+	 * (comment before titles, whole tokens before prefixes) times the rarity of the term (idf).
+	 * The rarest term selects the candidates from the index; each further term is checked on the fields of the
+	 * candidates as soon as there are fewer candidates than occurrences of the term, so that a frequent term
+	 * (e.g. a word that occurs in every comment) does not make the search slower.
+	 * @param text the search text
+	 * @param workRecords all indexed workrecords by id
+	 * @return id -> relevance of the matching workrecords; empty if the text does not contain any term
+	 */
+	Map<String, Float> search(
+			String text,
+			Map<String, StoredWorkRecord> workRecords) {
+		List<String> _terms = new ArrayList<String>(tokenize(text));
+		final Map<String, Integer> _frequencies = new HashMap<String, Integer>();
+		for (String _term : _terms) {
+			_frequencies.put(_term, frequency(_term));
+		}
+		Collections.sort(_terms, new Comparator<String>() {
+			@Override
+			public int compare(String term1, String term2) {
+				return _frequencies.get(term1).compareTo(_frequencies.get(term2));
+			}
+		});
+		Map<String, Float> _result = null;
+		for (String _term : _terms) {
+			int _frequency = _frequencies.get(_term);
+			float _idf = (float) Math.log(1.0 + (double) workRecords.size() / Math.max(1, _frequency));
+			Map<String, Float> _combined = new HashMap<String, Float>();
+			if (_result == null) {
+				for (Map.Entry<String, Float> _match : match(_term).entrySet()) {
+					_combined.put(_match.getKey(), _match.getValue() * _idf);
+				}
+			} else if (_result.size() < _frequency) {
+				for (Map.Entry<String, Float> _hit : _result.entrySet()) {
+					StoredWorkRecord _workRecord = workRecords.get(_hit.getKey());
+					float _weight = _workRecord == null ? 0 : weight(_workRecord.materialize().getModel(), _term);
+					if (_weight > 0) {
+						_combined.put(_hit.getKey(), _hit.getValue() + _weight * _idf);
+					}
+				}
+			} else {
+				Map<String, Float> _matches = match(_term);
+				for (Map.Entry<String, Float> _hit : _result.entrySet()) {
+					Float _weight = _matches.get(_hit.getKey());
+					if (_weight != null) {
+						_combined.put(_hit.getKey(), _hit.getValue() + _weight * _idf);
+					}
+				}
+			}
+			if (_combined.isEmpty()) {
+				return _combined;
+			}
+			_result = _combined;
+		}
+		return _result == null ? new HashMap<String, Float>() : _result;
+	}
+
+	/**
+	 * @param term a case-folded term
+	 * @return the number of occurrences of tokens that start with the term (an upper bound of the matching workrecords)
+	 */
+	private int frequency(
+			String term) {
+		long _frequency = 0;
+		for (Postings _postings : prefixed(term).values()) {
+			_frequency += _postings.ids.size();
+			for (String _key : _postings.titles) {
+				Title _title = titles.get(_key);
+				if (_title != null) {
+					_frequency += _title.ids.size();
+				}
+			}
+		}
+		return (int) Math.min(Integer.MAX_VALUE, _frequency);
+	}
+
+	private ConcurrentNavigableMap<String, Postings> prefixed(
+			String term) {
+		return terms.subMap(term, true, term + Character.MAX_VALUE, false);
+	}
+
+	/**
+	 * @param model a workrecord
+	 * @param term a case-folded term
+	 * @return the weight of the best match of the term in the fields of the workrecord; 0 if it does not match
+	 */
+	private static float weight(
+			WorkRecordModel model,
+			String term) {
+		return Math.max(weight(model.getComment(), term, COMMENT_WEIGHT), 
+				Math.max(weight(model.getProjectTitle(), term, TITLE_WEIGHT), weight(model.getResourceName(), term, TITLE_WEIGHT)));
+	}
+
+	private static float weight(
+			String text,
+			String term,
+			float fieldWeight) {
+		float _weight = 0;
+		for (String _token : tokenize(text)) {
+			if (_token.equals(term)) {
+				return fieldWeight;
+			}
+			if (_token.startsWith(term)) {
+				_weight = fieldWeight * PREFIX_FACTOR;
+			}
+		}
+		return _weight;
+	}
+
+	/**
+	 * @param term a case-folded term
+	 * @return id -> weight of the best match of the workrecords with a token that starts with the term
+	 */
+	private Map<String, Float> match(
+			String term) {
+		Map<String, Float> _matches = new HashMap<String, Float>();
+		for (Map.Entry<String, Postings> _entry : prefixed(term).entrySet()) {
+			float _factor = _entry.getKey().length() == term.length() ? 1.0f : PREFIX_FACTOR;
+			for (String _id : _entry.getValue().ids) {
+				best(_matches, _id, COMMENT_WEIGHT * _factor);
+			}
+			for (String _key : _entry.getValue().titles) {
+				Title _title = titles.get(_key);
+				if (_title != null) {
+					for (String _id : _title.ids) {
+						best(_matches, _id, TITLE_WEIGHT * _factor);
+					}
+				}
+			}
+		}
+		return _matches;
+	}
+
+	private static void best(
+			Map<String, Float> matches,
+			String id,
+			float weight) {
+		Float _weight = matches.get(id);
+		if (_weight == null || _weight < weight) {
+			matches.put(id, weight);
+		}
+	}
+
+	/**
+	 * Split a text into case-folded tokens without accents.
+	 * @param text the text (may be null)
+	 * @return the distinct tokens in the order of their first occurrence
+	 */
+	static Set<String> tokenize(
+			String text) {
+		Set<String> _tokens = new LinkedHashSet<String>();
+		if (text == null || text.isEmpty()) {
+			return _tokens;
+		}
+		// decompose accented characters into the base character and a non-spacing mark
+		String _folded = Normalizer.normalize(text, Normalizer.Form.NFD).toLowerCase(Locale.ROOT);
+		StringBuilder _token = new StringBuilder();
+		for (int i = 0; i < _folded.length(); i++) {
+			char _c = _folded.charAt(i);
+			if (Character.isLetterOrDigit(_c)) {
+				_token.append(_c);
+			} else if (Character.getType(_c) != Character.NON_SPACING_MARK && _token.length() > 0) {
+				_tokens.add(_token.toString());
+				_token.setLength(0);
+			}
+		}
+		if (_token.length() > 0) {
+			_tokens.add(_token.toString());
+		}
+		return _tokens;
+	}
+}
@@ -0,0 +1,108 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.workrecords.file;
+
+/**
+ * The total duration of a group of workrecords, as returned by 
+ * {@link FileServiceProvider#aggregateWorkRecords(String, String, String)}.
+ */
+public class WorkRecordTotal {
+	private String key = null;
+	private Boolean billable = null;
+	private long count = 0;
+	private long totalMinutes = 0;
+
+	public WorkRecordTotal() {
+	}
+
+	public WorkRecordTotal(
+			String key,
+			Boolean billable,
+			long count,
+			long totalMinutes) {
+		this.key = key;
+		this.billable = billable;
+		this.count = count;
+		this.totalMinutes = totalMinutes;
+	}
+
+	/**
+	 * @return the value of the group: a resourceId, projectId or companyId, a day (yyyy-MM-dd), 
+	 * 	a week (yyyy-Www, ISO 8601) or a month (yyyy-MM); null if the workrecords are not grouped by one of them
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	public void setKey(String key) {
+		this.key = key;
+	}
+
+	/**
+	 * @return the billable flag of the group; null if the workrecords are not grouped by it
+	 */
+	public Boolean getBillable() {
+		return billable;
+	}
+
+	public void setBillable(Boolean billable) {
+		this.billable = billable;
+	}
+
+	/**
+	 * @return the number of workrecords in the group
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	public void setCount(long count) {
+		this.count = count;
+	}
+
+	/**
+	 * @return the sum of durationHours * 60 + durationMinutes of the workrecords in the group
+	 */
+	public long getTotalMinutes() {
+		return totalMinutes;
+	}
+
+	public void setTotalMinutes(long totalMinutes) {
+		this.totalMinutes = totalMinutes;
+	}
+
+	/**
+	 * @return the full hours of the total duration
+	 */
+	public long getDurationHours() {
+		return totalMinutes / 60;
+	}
+
+	/**
+	 * @return the minutes of the total duration that are left after the full hours
+	 */
+	public long getDurationMinutes() {
+		return totalMinutes % 60;
+	}
+}
@@ -0,0 +1,164 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.workrecords.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.servlet.ServletContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * An element of a batch that is not a valid operation fails on its own, malformed JSON ends the batch,
+ * and a failure of the input stream aborts the batch with an IOException.
+ */
+public class BulkWorkRecordsTest {
+	private static final String DELETE_UNKNOWN = "{\"op\":\"delete\",\"id\":\"unknown\"}";
+
+	private File dataDir;
+	private FileServiceProvider provider;
+
+	@Before
+	public void createProvider() 
+			throws IOException {
+		dataDir = File.createTempFile("workrecords-bulk", "");
+		if (!dataDir.delete() || !new File(dataDir, "bulk").mkdirs()) {
+			throw new IOException("can not create <" + dataDir + ">");
+		}
+		provider = new FileServiceProvider(servletContext(dataDir), "bulk");
+	}
+
+	@After
+	public void shutdownProvider() {
+		FileServiceProvider.shutdown();
+		delete(dataDir);
+	}
+
+	@Test
+	public void invalidOperationsFailOnTheirOwn() 
+			throws IOException {
+		StringWriter _out = new StringWriter();
+		int _succeeded = provider.bulkWorkRecords(null, 
+			new StringReader("[42, {\"op\":\"delete\",\"id\":{\"a\":1}}, null, {\"op\":\"unknown\"}, " + DELETE_UNKNOWN + "]"), _out);
+		assertEquals("succeeded", 0, _succeeded);
+		List<WorkRecordBulkResult> _results = results(_out);
+		assertEquals("results", 5, _results.size());
+		for (int i = 0; i < _results.size(); i++) {
+			assertEquals("index", i, _results.get(i).getIndex());
+			assertEquals("status of " + i, WorkRecordBulkResult.STATUS_FAILED, _results.get(i).getStatus());
+		}
+		assertTrue(_results.get(0).getMessage(), _results.get(0).getMessage().startsWith("invalid operation"));
+		assertTrue(_results.get(1).getMessage(), _results.get(1).getMessage().startsWith("invalid operation"));
+	}
+
+	@Test
+	public void malformedJsonEndsTheBatch() 
+			throws IOException {
+		StringWriter _out = new StringWriter();
+		provider.bulkWorkRecords(null, new StringReader("[" + DELETE_UNKNOWN + ", {\"op\": }, " + DELETE_UNKNOWN + "]"), _out);
+		// the output is still a complete JSON array
+		List<WorkRecordBulkResult> _results = results(_out);
+		assertEquals("results", 2, _results.size());
+		assertTrue(_results.get(1).getMessage(), _results.get(1).getMessage().startsWith("malformed JSON"));
+	}
+
+	@Test
+	public void failureOfTheInputIsAnIOException() {
+		final Reader _operations = new StringReader("[" + DELETE_UNKNOWN + ", " + DELETE_UNKNOWN + ", ");
+		Reader _in = new Reader() {
+			@Override
+			public int read(char[] buffer, int offset, int length) 
+					throws IOException {
+				int _count = _operations.read(buffer, offset, length);
+				if (_count < 0) {
+					throw new IOException("connection reset");
+				}
+				return _count;
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+		StringWriter _out = new StringWriter();
+		try {
+			provider.bulkWorkRecords(null, _in, _out);
+			fail("the batch must be aborted");
+		}
+		catch (IOException _ex) {
+			assertEquals("message", "connection reset", _ex.getMessage());
+		}
+		// the results of the operations read before the failure were written
+		assertTrue(_out.toString(), _out.toString().contains("\"index\":1"));
+	}
+
+	private static List<WorkRecordBulkResult> results(
+			StringWriter out) {
+		return new Gson().fromJson(out.toString(), new TypeToken<List<WorkRecordBulkResult>>(){}.getType());
+	}
+
+	private static ServletContext servletContext(
+			final File dir) {
+		return (ServletContext) Proxy.newProxyInstance(ServletContext.class.getClassLoader(), new Class<?>[] { ServletContext.class }, 
+			new InvocationHandler() {
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) {
+					if (method.getName().equals("getRealPath")) {
+						return new File(dir, (String) args[0]).getPath();
+					}
+					return method.getReturnType() == boolean.class ? Boolean.FALSE 
+						: method.getReturnType() == int.class ? Integer.valueOf(0) : null;
+				}
+			});
+	}
+
+	private static void delete(
+			File f) {
+		File[] _files = f.listFiles();
+		if (_files != null) {
+			for (File _file : Arrays.asList(_files)) {
+				delete(_file);
+			}
+		}
+		f.delete();
+	}
+}
@@ -0,0 +1,164 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.workrecords.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opentdc.workrecords.TaggedWorkRecord;
+import org.opentdc.workrecords.WorkRecordModel;
+
+/**
+ * Switching snapshotFormat must not lose the changes written in the previous format: 
+ * the snapshot written last is loaded, whichever format it has.
+ */
+public class SnapshotFormatSwitchTest {
+	private File dataDir;
+	private File jsonF;
+	private File binaryF;
+
+	@Before
+	public void createDataDir() 
+			throws IOException {
+		dataDir = File.createTempFile("workrecords-snapshot", "");
+		if (!dataDir.delete() || !dataDir.mkdirs()) {
+			throw new IOException("can not create <" + dataDir + ">");
+		}
+		jsonF = new File(dataDir, SnapshotWriter.DATA_FN);
+		binaryF = new File(dataDir, SnapshotWriter.DATA_BIN_FN);
+	}
+
+	@After
+	public void deleteDataDir() {
+		File[] _files = dataDir.listFiles();
+		if (_files != null) {
+			for (File _file : _files) {
+				_file.delete();
+			}
+		}
+		dataDir.delete();
+	}
+
+	@Test
+	public void binaryWrittenAfterSwitchingToJsonIsLoaded() 
+			throws IOException {
+		// snapshotFormat=json, then binary (data.bin gets the later changes), then json again
+		write(jsonF, SnapshotWriter.FORMAT_JSON, 1, 10000);
+		write(binaryF, SnapshotWriter.FORMAT_BINARY, 2, 0);
+		File _snapshotF = SnapshotWriter.latestSnapshot(dataDir, SnapshotWriter.FORMAT_JSON);
+		assertEquals("loaded snapshot", binaryF, _snapshotF);
+		assertEquals("workrecords", ids(2), ids(SnapshotWriter.read(_snapshotF, SnapshotConverter.formatOf(_snapshotF))));
+	}
+
+	@Test
+	public void jsonWrittenAfterSwitchingToBinaryIsLoaded() 
+			throws IOException {
+		// snapshotFormat=binary, then json (data.json gets the later changes), then binary again
+		write(binaryF, SnapshotWriter.FORMAT_BINARY, 1, 10000);
+		write(jsonF, SnapshotWriter.FORMAT_JSON, 2, 0);
+		File _snapshotF = SnapshotWriter.latestSnapshot(dataDir, SnapshotWriter.FORMAT_BINARY);
+		assertEquals("loaded snapshot", jsonF, _snapshotF);
+		assertEquals("workrecords", ids(2), ids(SnapshotWriter.read(_snapshotF, SnapshotConverter.formatOf(_snapshotF))));
+	}
+
+	@Test
+	public void snapshotOfTheConfiguredFormatIsLoadedIfItIsTheLatest() 
+			throws IOException {
+		write(jsonF, SnapshotWriter.FORMAT_JSON, 1, 10000);
+		write(binaryF, SnapshotWriter.FORMAT_BINARY, 2, 0);
+		assertEquals("binary", binaryF, SnapshotWriter.latestSnapshot(dataDir, SnapshotWriter.FORMAT_BINARY));
+		// written at the same time
+		jsonF.setLastModified(binaryF.lastModified());
+		assertEquals("json", jsonF, SnapshotWriter.latestSnapshot(dataDir, SnapshotWriter.FORMAT_JSON));
+		assertEquals("binary", binaryF, SnapshotWriter.latestSnapshot(dataDir, SnapshotWriter.FORMAT_BINARY));
+	}
+
+	@Test
+	public void snapshotOfTheOtherFormatIsLoadedOnTheFirstStartAfterSwitching() 
+			throws IOException {
+		assertNull("no snapshot", SnapshotWriter.latestSnapshot(dataDir, SnapshotWriter.FORMAT_BINARY));
+		write(jsonF, SnapshotWriter.FORMAT_JSON, 1, 0);
+		assertEquals("json", jsonF, SnapshotWriter.latestSnapshot(dataDir, SnapshotWriter.FORMAT_BINARY));
+		jsonF.delete();
+		write(binaryF, SnapshotWriter.FORMAT_BINARY, 1, 0);
+		assertEquals("binary", binaryF, SnapshotWriter.latestSnapshot(dataDir, SnapshotWriter.FORMAT_JSON));
+	}
+
+	/**
+	 * Write a snapshot of the workrecords wr0 .. wr(count-1).
+	 * @param f the snapshot file
+	 * @param format the snapshot format
+	 * @param count the number of workrecords
+	 * @param age the age of the file in ms
+	 * @throws IOException
+	 */
+	private static void write(
+			File f,
+			String format,
+			int count,
+			long age) 
+			throws IOException {
+		List<TaggedWorkRecord> _workRecords = new ArrayList<TaggedWorkRecord>();
+		for (int i = 0; i < count; i++) {
+			WorkRecordModel _model = new WorkRecordModel();
+			_model.setId("wr" + i);
+			_model.setStartAt(new Date(1000000L * i));
+			_model.setComment("workrecord " + i);
+			TaggedWorkRecord _workRecord = new TaggedWorkRecord();
+			_workRecord.setModel(_model);
+			_workRecords.add(_workRecord);
+		}
+		SnapshotWriter.writeAtomically(_workRecords, f, new File(f.getPath() + SnapshotWriter.TMP_SUFFIX), format);
+		f.setLastModified(System.currentTimeMillis() - age);
+	}
+
+	private static Set<String> ids(
+			int count) {
+		Set<String> _ids = new HashSet<String>();
+		for (int i = 0; i < count; i++) {
+			_ids.add("wr" + i);
+		}
+		return _ids;
+	}
+
+	private static Set<String> ids(
+			List<TaggedWorkRecord> workRecords) {
+		Set<String> _ids = new HashSet<String>();
+		for (TaggedWorkRecord _workRecord : workRecords) {
+			_ids.add(_workRecord.getModel().getId());
+		}
+		return _ids;
+	}
+}
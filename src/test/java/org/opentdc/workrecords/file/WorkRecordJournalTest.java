@@ -0,0 +1,149 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.workrecords.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opentdc.workrecords.TaggedWorkRecord;
+import org.opentdc.workrecords.WorkRecordModel;
+
+import com.google.gson.Gson;
+
+/**
+ * The dates of a workrecord must keep their milliseconds on the way through the journal, a compaction into
+ * the JSON snapshot and a reload; snapshots written with the default date format of Gson must stay readable.
+ */
+public class WorkRecordJournalTest {
+	private File dataDir;
+	private File snapshotF;
+
+	@Before
+	public void createDataDir() 
+			throws IOException {
+		dataDir = File.createTempFile("workrecords-journal", "");
+		if (!dataDir.delete() || !dataDir.mkdirs()) {
+			throw new IOException("can not create <" + dataDir + ">");
+		}
+		snapshotF = new File(dataDir, SnapshotWriter.DATA_FN);
+	}
+
+	@After
+	public void deleteDataDir() {
+		File[] _files = dataDir.listFiles();
+		if (_files != null) {
+			for (File _file : _files) {
+				_file.delete();
+			}
+		}
+		dataDir.delete();
+	}
+
+	@Test
+	public void millisecondsSurviveCompactionAndReload() 
+			throws IOException {
+		WorkRecordJournal _journal = new WorkRecordJournal(new File(dataDir, WorkRecordJournal.JOURNAL_FN));
+		List<TaggedWorkRecord> _workRecords = _journal.replay(new ArrayList<TaggedWorkRecord>());
+		TaggedWorkRecord _first = newWorkRecord("wr1", 1234567890123L);
+		TaggedWorkRecord _second = newWorkRecord("wr2", 1234567890999L);
+		_journal.appendPut(_first, true);
+		_journal.appendPut(_second, true);
+		_workRecords.add(_first);
+		_workRecords.add(_second);
+		// compaction, like FileServiceProvider.compactJournal()
+		_journal.rotate();
+		SnapshotWriter.writeAtomically(_workRecords, snapshotF, new File(snapshotF.getPath() + SnapshotWriter.TMP_SUFFIX), 
+			SnapshotWriter.FORMAT_JSON);
+		_journal.commitCompaction();
+		// a change after the compaction is only in the journal
+		TaggedWorkRecord _third = newWorkRecord("wr3", 1234567890001L);
+		_journal.appendPut(_third, true);
+		_journal.close();
+
+		List<TaggedWorkRecord> _reloaded = new WorkRecordJournal(new File(dataDir, WorkRecordJournal.JOURNAL_FN))
+			.replay(SnapshotWriter.read(snapshotF, SnapshotWriter.FORMAT_JSON));
+		Map<String, WorkRecordModel> _models = models(_reloaded);
+		assertEquals("workrecords", 3, _models.size());
+		for (TaggedWorkRecord _expected : Arrays.asList(_first, _second, _third)) {
+			WorkRecordModel _model = _models.get(_expected.getModel().getId());
+			assertNotNull(_expected.getModel().getId(), _model);
+			assertEquals("startAt of " + _model.getId(), _expected.getModel().getStartAt().getTime(), _model.getStartAt().getTime());
+			assertEquals("createdAt of " + _model.getId(), _expected.getModel().getCreatedAt().getTime(), _model.getCreatedAt().getTime());
+		}
+	}
+
+	@Test
+	public void snapshotWithTheDefaultDateFormatOfGsonIsReadable() 
+			throws IOException {
+		TaggedWorkRecord _workRecord = newWorkRecord("wr1", 1234567890123L);
+		Writer _writer = new OutputStreamWriter(new FileOutputStream(snapshotF), "UTF-8");
+		try {
+			new Gson().toJson(Arrays.asList(_workRecord), _writer);
+		}
+		finally {
+			_writer.close();
+		}
+		WorkRecordModel _model = models(SnapshotWriter.read(snapshotF, SnapshotWriter.FORMAT_JSON)).get("wr1");
+		assertNotNull("wr1", _model);
+		// the default format of Gson has a precision of seconds
+		assertEquals("startAt", 1234567890000L, _model.getStartAt().getTime());
+	}
+
+	private static TaggedWorkRecord newWorkRecord(
+			String id,
+			long startAt) {
+		WorkRecordModel _model = new WorkRecordModel();
+		_model.setId(id);
+		_model.setStartAt(new Date(startAt));
+		_model.setCreatedAt(new Date(startAt + 7));
+		_model.setComment("workrecord " + id);
+		TaggedWorkRecord _workRecord = new TaggedWorkRecord();
+		_workRecord.setModel(_model);
+		return _workRecord;
+	}
+
+	private static Map<String, WorkRecordModel> models(
+			List<TaggedWorkRecord> workRecords) {
+		Map<String, WorkRecordModel> _models = new HashMap<String, WorkRecordModel>();
+		for (TaggedWorkRecord _workRecord : workRecords) {
+			_models.put(_workRecord.getModel().getId(), _workRecord.getModel());
+		}
+		return _models;
+	}
+}
@@ -0,0 +1,114 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.workrecords.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import org.opentdc.workrecords.TaggedWorkRecord;
+import org.opentdc.workrecords.WorkRecordModel;
+import org.opentdc.workrecords.WorkRecordQueryHandler;
+
+/**
+ * A plan must only narrow down the candidates to a superset of the matches of the WorkRecordQueryHandler;
+ * separators and terms inside quoted values must not become indexed terms.
+ */
+public class WorkRecordQueryPlanTest {
+	private static final String[] QUOTED_QUERIES = {
+		"comment=\"a, projectId=project1\"",
+		"comment='a; resourceId=resource1'",
+		"comment=\"a & companyId=company1\"",
+		"comment='a and startAt>=2030-01-01'",
+		"projectId=\"project1\"",
+		"projectId=project1, comment=\"x",		// unbalanced quote
+		"comment=\"x, projectId=project1"
+	};
+
+	@Test
+	public void quotedQueriesAreNotPlanned() {
+		for (String _query : QUOTED_QUERIES) {
+			assertTrue(_query, WorkRecordQueryPlan.parse(_query).isEmpty());
+		}
+	}
+
+	@Test
+	public void unquotedTermsArePlanned() {
+		WorkRecordQueryPlan _plan = WorkRecordQueryPlan.parse("resourceId=Resource1 & startAt>=2020-01-01 and comment=x");
+		assertFalse("plan", _plan.isEmpty());
+		assertEquals("resourceId", "resource1", _plan.resourceId);
+		assertTrue("startAt", _plan.hasStartAtRange());
+		assertEquals("projectId", null, _plan.projectId);
+	}
+
+	@Test
+	public void plannedCandidatesContainAllMatches() {
+		WorkRecordStore _store = new WorkRecordStore(new ObjectStorageEngine());
+		List<TaggedWorkRecord> _workRecords = new ArrayList<TaggedWorkRecord>();
+		for (int i = 0; i < 40; i++) {
+			WorkRecordModel _model = new WorkRecordModel();
+			_model.setId("wr" + i);
+			_model.setCompanyId("company" + (i % 2));
+			_model.setProjectId("project" + (i % 4));
+			_model.setResourceId("resource" + (i % 5));
+			_model.setStartAt(new Date(1577836800000L + i * 86400000L));
+			_model.setComment(i % 3 == 0 ? "a, projectId=project1" : "a; resourceId=resource1");
+			TaggedWorkRecord _workRecord = new TaggedWorkRecord();
+			_workRecord.setModel(_model);
+			_workRecords.add(_workRecord);
+		}
+		_store.load(_workRecords);
+		List<String> _queries = new ArrayList<String>();
+		for (String _query : QUOTED_QUERIES) {
+			_queries.add(_query);
+		}
+		_queries.add("projectId=project1");
+		_queries.add("resourceId=resource1 & startAt>=2020-01-10");
+		for (String _query : _queries) {
+			WorkRecordQueryHandler _queryHandler = new WorkRecordQueryHandler(_query);
+			assertEquals(_query, 
+				matches(_queryHandler, _store.select(new WorkRecordQueryPlan())), 
+				matches(_queryHandler, _store.select(WorkRecordQueryPlan.parse(_query))));
+		}
+	}
+
+	private static Set<String> matches(
+			WorkRecordQueryHandler queryHandler,
+			Iterable<TaggedWorkRecord> candidates) {
+		Set<String> _ids = new LinkedHashSet<String>();
+		for (TaggedWorkRecord _workRecord : candidates) {
+			if (queryHandler.evaluate(_workRecord)) {
+				_ids.add(_workRecord.getModel().getId());
+			}
+		}
+		return _ids;
+	}
+}
@@ -0,0 +1,349 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.workrecords.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+import org.opentdc.service.TagRefModel;
+import org.opentdc.workrecords.TaggedWorkRecord;
+import org.opentdc.workrecords.WorkRecordModel;
+
+/**
+ * Concurrent creates, updates, deletes, addTag and deleteTagRef on a small set of workrecords (i.e. with contention 
+ * on the striped locks), in the way the FileServiceProvider uses the store: changes are made to a copy and published
+ * while holding the lock of the workrecord, either directly or with a compare-and-set of the version.
+ * Meanwhile, snapshots are taken; while all writers are excluded, and again at the end, the primary index, 
+ * the sorted index, the tagRef and tag indexes and the secondary indexes must agree.
+ */
+@RunWith(Parameterized.class)
+public class WorkRecordStoreStressTest {
+	private static final int THREADS = 8;
+	private static final int OPERATIONS = 20000;		// per thread
+	private static final int IDS = 256;
+	private static final int TAGS = 16;
+	private static final int RESOURCES = 8;
+	private static final String COMMENT_TERM = "stress";
+
+	private final StorageEngine engine;
+
+	@Parameters(name = "{0}")
+	public static Collection<Object[]> engines() {
+		return Arrays.asList(new Object[][] { 
+			{ "object", new ObjectStorageEngine() },
+			{ "columnar", new ColumnarStorageEngine() }
+		});
+	}
+
+	public WorkRecordStoreStressTest(
+			String name,
+			StorageEngine engine) {
+		this.engine = engine;
+	}
+
+	@Test
+	public void concurrentChangesKeepTheIndexesConsistent() 
+			throws InterruptedException {
+		final WorkRecordStore _store = new WorkRecordStore(engine);
+		final ConcurrentLinkedQueue<Throwable> _errors = new ConcurrentLinkedQueue<Throwable>();
+		final AtomicBoolean _running = new AtomicBoolean(true);
+		final AtomicInteger _snapshots = new AtomicInteger();
+		final CountDownLatch _start = new CountDownLatch(1);
+		List<Thread> _writers = new ArrayList<Thread>();
+		for (int t = 0; t < THREADS; t++) {
+			_writers.add(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						_start.await();
+						for (int i = 0; i < OPERATIONS; i++) {
+							change(_store);
+						}
+					}
+					catch (Throwable _ex) {
+						_errors.add(_ex);
+					}
+				}
+			}, "stress-writer-" + t));
+		}
+		Thread _snapshotter = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					_start.await();
+					while (_running.get()) {
+						_store.snapshot(new Runnable() {
+							@Override
+							public void run() {
+								// no writer is active: the indexes must be consistent
+								assertConsistent(_store);
+							}
+						});
+						_snapshots.incrementAndGet();
+						Thread.sleep(5);
+					}
+				}
+				catch (Throwable _ex) {
+					_errors.add(_ex);
+				}
+			}
+		}, "stress-snapshotter");
+		for (Thread _writer : _writers) {
+			_writer.start();
+		}
+		_snapshotter.start();
+		_start.countDown();
+		for (Thread _writer : _writers) {
+			_writer.join();
+		}
+		_running.set(false);
+		_snapshotter.join();
+		for (Throwable _error : _errors) {
+			throw new AssertionError("concurrent change failed: " + _error, _error);
+		}
+		assertTrue("no snapshot was taken", _snapshots.get() > 0);
+		assertConsistent(_store);
+		// the text index must not keep the terms of removed workrecords
+		for (int i = 0; i < IDS; i++) {
+			_store.lock("wr" + i);
+			try {
+				TaggedWorkRecord _current = _store.get("wr" + i);
+				if (_current != null) {
+					_store.remove(_current);
+				}
+			}
+			finally {
+				_store.unlock("wr" + i);
+			}
+		}
+		assertEquals("terms left in the text index", 0, _store.textTermCount());
+	}
+
+	/**
+	 * Apply a random change to a random workrecord.
+	 */
+	private static void change(
+			WorkRecordStore store) {
+		ThreadLocalRandom _random = ThreadLocalRandom.current();
+		String _id = "wr" + _random.nextInt(IDS);
+		if (_random.nextInt(4) == 0) {
+			// optimistic update: the copy is prepared without holding the lock
+			StoredWorkRecord _stored = store.getStored(_id);
+			if (_stored == null) {
+				return;
+			}
+			TaggedWorkRecord _old = _stored.materialize();
+			TaggedWorkRecord _new = WorkRecordStore.copyOf(_old);
+			modify(_new.getModel());
+			store.lock(_id);
+			try {
+				store.replace(_old, _new, _stored.getVersion());		// NO_VERSION if it was changed in the meantime
+			}
+			finally {
+				store.unlock(_id);
+			}
+			return;
+		}
+		store.lock(_id);
+		try {
+			TaggedWorkRecord _current = store.get(_id);
+			if (_current == null) {
+				TaggedWorkRecord _new = new TaggedWorkRecord();
+				_new.setModel(newWorkRecord(_id));
+				store.put(_new);
+				return;
+			}
+			TaggedWorkRecord _copy = WorkRecordStore.copyOf(_current);
+			switch (_random.nextInt(5)) {
+			case 0:
+				store.remove(_current);
+				break;
+			case 1:
+				String _tagId = "tag" + _random.nextInt(TAGS);
+				if (!_copy.containsTag(_tagId)) {
+					TagRefModel _tagRef = new TagRefModel(_tagId);
+					_tagRef.setId(UUID.randomUUID().toString());
+					_tagRef.setCreatedAt(new Date());
+					_tagRef.setCreatedBy("stress");
+					_copy.addTagRef(_tagRef);
+					store.replace(_current, _copy);
+				}
+				break;
+			case 2:
+				if (!_copy.getTagRefs().isEmpty()) {
+					TagRefModel _tagRef = _copy.getTagRefs().get(_random.nextInt(_copy.getTagRefs().size()));
+					assertTrue(_copy.removeTagRef(_tagRef));
+					store.replace(_current, _copy);
+				}
+				break;
+			default:
+				modify(_copy.getModel());
+				store.replace(_current, _copy);
+				break;
+			}
+		}
+		finally {
+			store.unlock(_id);
+		}
+	}
+
+	private static WorkRecordModel newWorkRecord(
+			String id) {
+		WorkRecordModel _model = new WorkRecordModel();
+		_model.setId(id);
+		_model.setCompanyId("company1");
+		_model.setCompanyTitle("Company 1");
+		_model.setProjectId("project1");
+		_model.setProjectTitle("Project 1");
+		_model.setCreatedAt(new Date());
+		_model.setCreatedBy("stress");
+		modify(_model);
+		return _model;
+	}
+
+	/**
+	 * Change the attributes that determine the position in the sorted index and the secondary indexes.
+	 */
+	private static void modify(
+			WorkRecordModel model) {
+		ThreadLocalRandom _random = ThreadLocalRandom.current();
+		int _resource = _random.nextInt(RESOURCES);
+		model.setResourceId("resource" + _resource);
+		model.setResourceName("Resource " + _resource);
+		// few distinct values, so that the id often decides the order
+		model.setStartAt(new Date(1420070400000L + _random.nextInt(32) * 3600000L));
+		model.setDurationHours(_random.nextInt(8));
+		model.setDurationMinutes(_random.nextInt(60));
+		model.setComment(COMMENT_TERM + " r" + _random.nextInt(1000));
+		model.setModifiedAt(new Date());
+		model.setModifiedBy("stress");
+	}
+
+	private static List<TaggedWorkRecord> listed(
+			WorkRecordStore store) {
+		List<TaggedWorkRecord> _workRecords = new ArrayList<TaggedWorkRecord>();
+		for (TaggedWorkRecord _workRecord : store.sorted()) {
+			_workRecords.add(_workRecord);
+		}
+		return _workRecords;
+	}
+
+	/**
+	 * Check that all indexes agree with the primary index; must be called while no writer is active.
+	 */
+	private static void assertConsistent(
+			WorkRecordStore store) {
+		Map<String, TaggedWorkRecord> _byId = new HashMap<String, TaggedWorkRecord>();
+		for (TaggedWorkRecord _workRecord : store.snapshot(null)) {
+			_byId.put(_workRecord.getModel().getId(), _workRecord);
+		}
+		assertEquals("primary index", store.size(), _byId.size());
+
+		// the sorted index contains each published workrecord exactly once, in order
+		List<TaggedWorkRecord> _sorted = listed(store);
+		assertEquals("sorted index size", _byId.size(), _sorted.size());
+		Set<String> _sortedIds = new HashSet<String>();
+		for (int i = 0; i < _sorted.size(); i++) {
+			String _id = _sorted.get(i).getModel().getId();
+			assertTrue("duplicate <" + _id + "> in the sorted index", _sortedIds.add(_id));
+			assertEquals("sorted index entry <" + _id + "> is not the published one", 
+					_byId.get(_id).getModel().getStartAt(), _sorted.get(i).getModel().getStartAt());
+			if (i > 0) {
+				assertTrue("sorted index out of order at <" + _id + ">",
+						WorkRecordStore.SortedIndexComparator.compare(_sorted.get(i - 1), _sorted.get(i)) < 0);
+				assertTrue("sorted index disagrees with TaggedWorkRecordComparator at <" + _id + ">",
+						TaggedWorkRecord.TaggedWorkRecordComparator.compare(_sorted.get(i - 1), _sorted.get(i)) <= 0);
+			}
+		}
+
+		// every tagRef is indexed, and the tag index agrees with the tagRefs
+		int _tagRefs = 0;
+		Map<String, Set<String>> _tagged = new HashMap<String, Set<String>>();
+		for (TaggedWorkRecord _workRecord : _byId.values()) {
+			String _id = _workRecord.getModel().getId();
+			for (TagRefModel _tagRef : _workRecord.getTagRefs()) {
+				_tagRefs++;
+				TagRefModel _indexed = store.getTagRef(_tagRef.getId());
+				assertNotNull("tagRef <" + _tagRef.getId() + "> of <" + _id + "> is not indexed", _indexed);
+				assertEquals(_tagRef.getTagId(), _indexed.getTagId());
+				Set<String> _ids = _tagged.get(_tagRef.getTagId());
+				if (_ids == null) {
+					_ids = new HashSet<String>();
+					_tagged.put(_tagRef.getTagId(), _ids);
+				}
+				_ids.add(_id);
+			}
+		}
+		assertEquals("tagRef index size", _tagRefs, store.tagRefCount());
+		for (int t = 0; t < TAGS; t++) {
+			String _tagId = "tag" + t;
+			Set<String> _expected = _tagged.containsKey(_tagId) ? _tagged.get(_tagId) : new HashSet<String>();
+			assertEquals("tag index of <" + _tagId + ">", _expected, ids(store.selectByTag(_tagId)));
+		}
+
+		// the secondary and full-text indexes select exactly the published workrecords
+		for (int r = 0; r < RESOURCES; r++) {
+			WorkRecordQueryPlan _plan = new WorkRecordQueryPlan();
+			_plan.resourceId = WorkRecordQueryPlan.key("resource" + r);
+			Set<String> _expected = new HashSet<String>();
+			for (TaggedWorkRecord _workRecord : _byId.values()) {
+				if (_workRecord.getModel().getResourceId().equals("resource" + r)) {
+					_expected.add(_workRecord.getModel().getId());
+				}
+			}
+			assertEquals("resource index of <resource" + r + ">", _expected, ids(store.select(_plan)));
+		}
+		assertEquals("full-text index", _byId.keySet(), ids(store.search(COMMENT_TERM, false, Integer.MAX_VALUE)));
+	}
+
+	private static Set<String> ids(
+			Iterable<TaggedWorkRecord> workRecords) {
+		Set<String> _ids = new HashSet<String>();
+		for (TaggedWorkRecord _workRecord : workRecords) {
+			assertTrue("duplicate <" + _workRecord.getModel().getId() + ">", _ids.add(_workRecord.getModel().getId()));
+		}
+		return _ids;
+	}
+}